@@ -0,0 +1,93 @@
+package searchengine;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнивает разбиение текста на слова и проверку служебных частей речи
+ * в {@link LemmaFinder} с прежней реализацией (toLowerCase, replaceAll
+ * и split по всему тексту; toUpperCase на каждом описании словоформы).
+ * Текст страницы задаётся параметром page - путём к файлу с видимым
+ * текстом страницы из обхода; по умолчанию берётся пример из ресурсов.
+ * Запуск описан в README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class LemmaFinderBenchmark {
+    private static final String[] PARTICLES = { "МЕЖД", "СОЮЗ", "ПРЕДЛ", "ЧАСТ" };
+    private static final List<String> MORPH_INFO = List.of(
+        "и|a СОЮЗ", "в|l ПРЕДЛ", "дом|A С мр,ед,им", "улица|G С жр,ед,им",
+        "писатель|Q С мр,ед,им,од", "работать|a Г дст,прш,ед,мр", "бы|b ЧАСТ"
+    );
+
+    @Param("")
+    private String page;
+
+    private LemmaFinder lemmaFinder;
+    private String text;
+
+    @Setup
+    public void setUp() throws IOException {
+        lemmaFinder = new LemmaFinder();
+        lemmaFinder.init();
+
+        if (page.isEmpty()) {
+            try (InputStream in = LemmaFinderBenchmark.class.getResourceAsStream("/page.txt")) {
+                text = new String(in.readAllBytes(), StandardCharsets.UTF_8).repeat(32);
+            }
+        } else {
+            text = Files.readString(Paths.get(page));
+        }
+    }
+
+    @Benchmark
+    public void splitTokenizer(Blackhole blackhole) {
+        for (String word : text.toLowerCase(Locale.ROOT).replaceAll("([^а-я\\s])", " ").trim().split("\\s+")) {
+            blackhole.consume(word);
+        }
+    }
+
+    @Benchmark
+    public void scanningTokenizer(Blackhole blackhole) {
+        lemmaFinder.tokenize(text, (word, start) -> blackhole.consume(word));
+    }
+
+    @Benchmark
+    public boolean upperCaseParticleCheck() {
+        boolean found = false;
+
+        for (String wordBase : MORPH_INFO) {
+            for (String property : PARTICLES) {
+                found |= wordBase.toUpperCase().contains(property);
+            }
+        }
+
+        return found;
+    }
+
+    @Benchmark
+    public boolean tagParticleCheck() {
+        boolean found = false;
+
+        for (String wordBase : MORPH_INFO) {
+            for (String property : PARTICLES) {
+                found |= lemmaFinder.containsTag(wordBase, property);
+            }
+        }
+
+        return found;
+    }
+}
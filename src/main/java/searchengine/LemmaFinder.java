@@ -1,70 +1,212 @@
 package searchengine;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.lucene.morphology.LuceneMorphology;
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.util.*;
-
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Словари морфологии загружаются один раз и только читаются,
+ * поэтому один экземпляр можно использовать из любого числа потоков.
+ * Русские и английские слова разбираются каждое своим словарём.
+ */
+@Component
 public class LemmaFinder {
+    private static final String SKIPPED = "";
+
     private final String[] particlesNames = new String[] { "МЕЖД", "СОЮЗ", "ПРЕДЛ", "ЧАСТ" };
+    private final String[] englishParticlesNames = new String[] { "ARTICLE", "CONJ", "PREP", "PART", "INT" };
     private final LuceneMorphology luceneMorph;
+    private final LuceneMorphology englishMorph;
+    private Cache<String, String> normalForms;
+
+    @Value("${search-bot.lemma-cache-size:100000}")
+    private int cacheSize;
 
     public LemmaFinder() {
         try {
             luceneMorph = new RussianLuceneMorphology();
+            englishMorph = new EnglishLuceneMorphology();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    @PostConstruct
+    public void init() {
+        normalForms = Caffeine.newBuilder()
+            .maximumSize(cacheSize)
+            .build();
+    }
+
     public HashMap<String, Integer> textToLemmas(String text) {
         HashMap<String, Integer> result = new HashMap<>();
-        String[] words = arrayContainsRussianWords(text);
 
-        for (String word : words) {
-            if (word.isBlank()) {
-                continue;
+        tokenize(text, (word, start) -> {
+            String normalWord = getNormalForm(word);
+
+            if (!normalWord.isEmpty()) {
+                result.merge(normalWord, 1, Integer::sum);
             }
+        });
+
+        return result;
+    }
+
+    /**
+     * То же, что {@link #textToLemmas(String)}, но вместо числа вхождений
+     * каждой леммы возвращает смещения начал её вхождений в текст
+     * по возрастанию. Конец слова находит {@link #wordEnd(String, int)}.
+     */
+    public HashMap<String, int[]> textToLemmaPositions(String text) {
+        HashMap<String, int[]> positions = new HashMap<>();
+
+        tokenize(text, (word, start) -> {
+            String normalWord = getNormalForm(word);
+
+            if (!normalWord.isEmpty()) {
+                // в нулевом элементе - число занятых ячеек
+                int[] starts = positions.computeIfAbsent(normalWord, l -> new int[4]);
 
-            List<String> wordBaseForms = luceneMorph.getMorphInfo(word);
+                if (starts[0] == starts.length - 1) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                    positions.put(normalWord, starts);
+                }
 
-            if (anyWordBaseBelongToParticle(wordBaseForms)) {
-                continue;
+                starts[++starts[0]] = start;
             }
+        });
 
-            List<String> normalForms = luceneMorph.getNormalForms(word);
+        positions.replaceAll((lemma, starts) -> Arrays.copyOfRange(starts, 1, starts[0] + 1));
 
-            if (normalForms.isEmpty()) {
-                continue;
+        return positions;
+    }
+
+    /**
+     * Возвращает смещение за концом слова, начинающегося в позиции start,
+     * по тем же правилам, по которым текст разбивается на слова.
+     */
+    public static int wordEnd(String text, int start) {
+        boolean russian = isRussianLetter(Character.toLowerCase(text.charAt(start)));
+        int end = start + 1;
+
+        while (end < text.length()) {
+            char c = Character.toLowerCase(text.charAt(end));
+
+            if (!(russian ? isRussianLetter(c) : isEnglishLetter(c))) {
+                break;
             }
 
-            String normalWord = normalForms.get(0);
+            end++;
+        }
+
+        return end;
+    }
+
+    /**
+     * Возвращает нормальную форму слова или {@link #SKIPPED}, если слово -
+     * служебная часть речи или не найдено в словаре. В кеше хранятся
+     * search-bot.lemma-cache-size слов, редко встречающиеся вытесняются.
+     */
+    private String getNormalForm(String word) {
+        return normalForms.get(word, this::findNormalForm);
+    }
+
+    private String findNormalForm(String word) {
+        String normalWord = SKIPPED;
+        boolean russian = isRussianLetter(word.charAt(0));
+        LuceneMorphology morph = russian ? luceneMorph : englishMorph;
+        String[] particles = russian ? particlesNames : englishParticlesNames;
+
+        if (!anyWordBaseBelongToParticle(morph.getMorphInfo(word), particles)) {
+            List<String> forms = morph.getNormalForms(word);
 
-            if (result.containsKey(normalWord)) {
-                result.put(normalWord, result.get(normalWord) + 1);
-            } else {
-                result.put(normalWord, 1);
+            if (!forms.isEmpty()) {
+                normalWord = forms.get(0);
             }
         }
 
-        return result;
+        return normalWord;
+    }
+
+    /**
+     * Разбивает текст на слова за один проход, не создавая промежуточных
+     * копий всего текста. Слово - непрерывная последовательность русских
+     * или английских букв; смена алфавита тоже разделяет слова. Вместе
+     * со словом передаётся смещение его начала в тексте.
+     */
+    void tokenize(String text, ObjIntConsumer<String> consumer) {
+        char[] word = new char[32];
+        int length = 0;
+
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? Character.toLowerCase(text.charAt(i)) : ' ';
+            boolean letter = isRussianLetter(c) || isEnglishLetter(c);
+
+            if (length > 0 && (!letter || isRussianLetter(c) != isRussianLetter(word[0]))) {
+                consumer.accept(new String(word, 0, length), i - length);
+                length = 0;
+            }
+
+            if (letter) {
+                if (length == word.length) {
+                    word = Arrays.copyOf(word, length * 2);
+                }
+
+                word[length++] = c;
+            }
+        }
+    }
+
+    private static boolean isRussianLetter(char c) {
+        return c >= 'а' && c <= 'я';
+    }
+
+    private static boolean isEnglishLetter(char c) {
+        return c >= 'a' && c <= 'z';
     }
 
-    private String[] arrayContainsRussianWords(String text) {
-        return text.toLowerCase(Locale.ROOT)
-            .replaceAll("([^а-я\\s])", " ")
-            .trim()
-            .split("\\s+");
+    private boolean anyWordBaseBelongToParticle(List<String> wordBaseForms, String[] particles) {
+        for (String wordBase : wordBaseForms) {
+            if (hasParticleProperty(wordBase, particles)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
-    private boolean anyWordBaseBelongToParticle(List<String> wordBaseForms) {
-        return wordBaseForms.stream().anyMatch(this::hasParticleProperty);
+    private boolean hasParticleProperty(String wordBase, String[] particles) {
+        for (String property : particles) {
+            if (containsTag(wordBase, property)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
-    private boolean hasParticleProperty(String wordBase) {
-        for (String property : particlesNames) {
-            if (wordBase.toUpperCase().contains(property)) {
+    /**
+     * Ищет в описании словоформы ("слово|код ТЕГ ТЕГ,ТЕГ") тег целиком,
+     * без учёта регистра, чтобы, например, PART не совпадал с PARTICIPLE.
+     */
+    boolean containsTag(String wordBase, String tag) {
+        int start = wordBase.indexOf('|') + 1;
+        char first = tag.charAt(0);
+
+        for (int i = start, last = wordBase.length() - tag.length(); i <= last; i++) {
+            if (Character.toUpperCase(wordBase.charAt(i)) == first &&
+                wordBase.regionMatches(true, i, tag, 0, tag.length()) &&
+                (i == start || !Character.isLetter(wordBase.charAt(i - 1))) &&
+                (i == last || !Character.isLetter(wordBase.charAt(i + tag.length())))) {
                 return true;
             }
         }
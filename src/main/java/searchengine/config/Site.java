@@ -8,4 +8,10 @@ import lombok.Setter;
 public class Site {
     private String url;
     private String name;
+    /**
+     * Доля общего бюджета запросов, которую сайт получает при обходе
+     * вместе с другими: сайт с приоритетом 2 получает вдвое больше сайта
+     * с приоритетом 1.
+     */
+    private int priority = 1;
 }
@@ -0,0 +1,180 @@
+package searchengine.crawler;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Журнал обхода сайта, по которому обход продолжается после перезапуска.
+ * Файл только дописывается: "G n" - поколение, которое строит обход,
+ * "Q путь" - адрес принят в очередь, "D путь" - адрес обработан.
+ * Строки копятся в памяти и записываются не чаще раза в
+ * search-bot.checkpoint-interval миллисекунд.
+ */
+@Slf4j
+public class CrawlCheckpoint {
+    private final Path path;
+    private final long interval;
+    private final AtomicLong savedAt = new AtomicLong(System.currentTimeMillis());
+    private final Object saveLock = new Object();
+    private StringBuilder pending = new StringBuilder();
+
+    public CrawlCheckpoint(Path path, long interval) {
+        this.path = path;
+        this.interval = interval;
+    }
+
+    /**
+     * Читает журнал прерванного обхода. Возвращает null, если его нет.
+     * Недописанная последняя строка пропускается.
+     */
+    public Saved read() {
+        List<String> lines;
+
+        try {
+            if (!Files.exists(path)) {
+                return null;
+            }
+
+            String text = Files.readString(path, StandardCharsets.UTF_8);
+            lines = Arrays.asList(text.substring(0, text.lastIndexOf('\n') + 1).split("\n"));
+        } catch (IOException e) {
+            log.error("Не удалось прочитать журнал обхода {}, обход начнётся заново", path, e);
+            return null;
+        }
+
+        int generation = -1;
+        Set<String> queued = new HashSet<>();
+        Set<String> done = new HashSet<>();
+
+        for (String line : lines) {
+            if (line.length() < 2) {
+                continue;
+            }
+
+            String value = line.substring(2);
+
+            switch (line.charAt(0)) {
+                case 'G' -> generation = Integer.parseInt(value);
+                case 'Q' -> queued.add(value);
+                case 'D' -> done.add(value);
+                default -> {
+                }
+            }
+        }
+
+        return generation < 0 ? null : new Saved(generation, queued, done);
+    }
+
+    /**
+     * Начинает журнал нового обхода, стирая прежний.
+     */
+    public void reset(int generation) throws IOException {
+        synchronized (saveLock) {
+            synchronized (this) {
+                pending = new StringBuilder();
+            }
+
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, "G " + generation + "\n", StandardCharsets.UTF_8);
+        }
+    }
+
+    public synchronized void queued(String path) {
+        pending.append("Q ").append(path).append('\n');
+    }
+
+    public synchronized void done(String path) {
+        pending.append("D ").append(path).append('\n');
+    }
+
+    /**
+     * Возвращает true не чаще раза в интервал - тому, кто должен
+     * записать журнал.
+     */
+    public boolean isDue() {
+        long last = savedAt.get();
+        long now = System.currentTimeMillis();
+
+        return now - last >= interval && savedAt.compareAndSet(last, now);
+    }
+
+    /**
+     * Дописывает накопленные строки в файл. Перед записью вызывается flush,
+     * который должен сохранить в базу все страницы, отмеченные в этих
+     * строках обработанными: после перезапуска они не скачиваются заново.
+     * Если flush или запись не удались, строки остаются в очереди до
+     * следующего раза.
+     */
+    public void save(Runnable flush) {
+        synchronized (saveLock) {
+            String lines;
+
+            synchronized (this) {
+                lines = pending.toString();
+                pending = new StringBuilder();
+            }
+
+            try {
+                flush.run();
+            } catch (RuntimeException e) {
+                log.error("Не удалось сохранить страницы перед записью журнала обхода {}", path, e);
+                keep(lines);
+                return;
+            }
+
+            if (lines.isEmpty()) {
+                return;
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("Не удалось записать журнал обхода {}", path, e);
+                keep(lines);
+            }
+        }
+    }
+
+    /**
+     * Возвращает незаписанные строки в начало очереди.
+     */
+    private synchronized void keep(String lines) {
+        pending.insert(0, lines);
+    }
+
+    /**
+     * Удаляет журнал законченного обхода.
+     */
+    public void delete() {
+        synchronized (saveLock) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.error("Не удалось удалить журнал обхода {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Состояние прерванного обхода: строившееся поколение, все принятые
+     * в очередь адреса и уже обработанные из них.
+     */
+    public record Saved(int generation, Set<String> queued, Set<String> done) {
+    }
+}
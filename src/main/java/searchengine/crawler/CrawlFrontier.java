@@ -0,0 +1,84 @@
+package searchengine.crawler;
+
+import java.net.URL;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CrawlFrontier {
+    private final BlockingQueue<URL> queue;
+    private final VisitedSet visited;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    public CrawlFrontier(int capacity, VisitedSet visited) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.visited = visited;
+    }
+
+    /**
+     * Ставит адрес в очередь обхода, если он ещё не встречался.
+     * При переполнении очереди адрес отбрасывается и может быть
+     * добавлен повторно со следующей страницы.
+     */
+    public boolean offer(URL url) {
+        String path = url.getPath();
+
+        if (!visited.add(path)) {
+            return false;
+        }
+
+        pending.incrementAndGet();
+
+        if (!queue.offer(url)) {
+            visited.remove(path);
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    public URL poll(long timeoutMillis) throws InterruptedException {
+        return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Отмечает окончание обработки адреса, полученного через {@link #poll(long)}.
+     */
+    public void done() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Не даёт обходу закончиться, пока адреса могут поступить не только
+     * со скачанных страниц (например, из sitemap). Снимается {@link #done()}.
+     */
+    public void hold() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Отбрасывает все адреса, ещё не взятые в обработку.
+     */
+    public void clear() {
+        while (queue.poll() != null) {
+            pending.decrementAndGet();
+        }
+    }
+
+    public boolean isExhausted() {
+        return pending.get() == 0;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public int getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,264 @@
+package searchengine.crawler;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Раздаёт адреса из очередей всех обходов в пределах общего бюджета
+ * одновременных запросов search-bot.threads. Очередной адрес берётся
+ * у того из готовых обходов, который с учётом приоритета сайта получил
+ * меньше остальных (stride scheduling), так что большой сайт не задерживает
+ * маленькие. Обход готов, если в его очереди есть адреса, пауза перед
+ * запросом к его хосту истекла, к хосту есть свободное соединение и
+ * предыдущий выданный ему адрес уже занял и то, и другое.
+ * Сам адрес обрабатывается в пуле планировщика, чтобы поток раздачи
+ * никогда не ждал запроса или конвейера. Долгая работа по сайтам тоже
+ * выполняется в этом пуле, а не в общем ForkJoinPool.
+ */
+@Component
+@RequiredArgsConstructor
+public class CrawlScheduler {
+    private static final long STRIDE = 1 << 20;
+    private static final long IDLE_WAIT = 50;
+
+    @Autowired
+    private final PageFetcher pageFetcher;
+
+    @Value("${search-bot.threads:8}")
+    private int threads;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private long virtualTime;
+
+    private Semaphore budget;
+    private ExecutorService executor;
+    private Thread dispatcher;
+
+    @PostConstruct
+    public void start() {
+        budget = new Semaphore(threads);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "crawl-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = new Thread(this::dispatch, "crawl-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatcher.interrupt();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Выполняет работу по сайту (подготовку обхода, чтение sitemap,
+     * удаление старого поколения) в пуле планировщика.
+     */
+    public void execute(Runnable job) {
+        executor.execute(job);
+    }
+
+    /**
+     * Ставит обход в расписание. visitor обрабатывает выданный адрес
+     * и возвращает future, по завершении которой запрос освобождает место
+     * в бюджете. Результат завершается в пуле планировщика, когда очередь
+     * обхода исчерпана.
+     */
+    public CompletableFuture<Void> submit(SiteCrawl crawl, Visitor visitor) throws MalformedURLException {
+        Entry entry = new Entry(crawl, visitor, new URL(crawl.getSite().getUrl()).getHost());
+
+        synchronized (entries) {
+            entry.pass = virtualTime;
+            entries.add(entry);
+            entries.notifyAll();
+        }
+
+        return entry.finished;
+    }
+
+    /**
+     * Прерывает все обходы: адреса, ещё не выданные, отбрасываются.
+     */
+    public void stopAll() {
+        synchronized (entries) {
+            for (Entry entry : entries) {
+                entry.crawl.stop();
+                entry.crawl.getFrontier().clear();
+            }
+        }
+    }
+
+    /**
+     * Число запросов, выданных планировщиком и ещё не законченных.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                budget.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Entry entry;
+            URL url;
+
+            try {
+                synchronized (entries) {
+                    while ((entry = next()) == null) {
+                        entries.wait(IDLE_WAIT);
+                    }
+
+                    url = entry.url;
+                    entry.url = null;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Entry target = entry;
+            inFlight.incrementAndGet();
+
+            try {
+                executor.execute(() -> visit(target, url));
+            } catch (RejectedExecutionException e) {
+                release(target);
+                inFlight.decrementAndGet();
+                budget.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Обрабатывает выданный адрес в пуле планировщика. Место в бюджете
+     * освобождается, когда обработка закончена.
+     */
+    private void visit(Entry entry, URL url) {
+        CompletableFuture<?> visit;
+
+        try {
+            visit = entry.visitor.visit(entry.crawl, url);
+        } catch (Exception e) {
+            visit = CompletableFuture.failedFuture(e);
+        } finally {
+            release(entry);
+        }
+
+        visit.whenComplete((r, e) -> {
+            inFlight.decrementAndGet();
+            budget.release();
+        });
+    }
+
+    /**
+     * Снимает с обхода отметку о выданном адресе, который ещё не занял
+     * паузу и соединение хоста.
+     */
+    private void release(Entry entry) {
+        synchronized (entries) {
+            entry.busy = false;
+            entries.notifyAll();
+        }
+    }
+
+    /**
+     * Выбирает готовый обход с наименьшим проходом и берёт адрес из его
+     * очереди. Заодно завершает обходы с исчерпанной очередью.
+     */
+    private Entry next() {
+        long now = System.currentTimeMillis();
+        Entry best = null;
+
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            CrawlFrontier frontier = entry.crawl.getFrontier();
+
+            if (entry.crawl.isStopped()) {
+                frontier.clear();
+            }
+
+            if (frontier.isExhausted()) {
+                it.remove();
+                executor.execute(() -> entry.finished.complete(null));
+                continue;
+            }
+
+            if (entry.busy || frontier.size() == 0 ||
+                entry.crawl.getPoliteness().getNextFetchTime(entry.host) > now ||
+                !pageFetcher.hasFreeConnection(entry.host)) {
+                continue;
+            }
+
+            if (best == null || entry.pass < best.pass) {
+                best = entry;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        try {
+            best.url = best.crawl.getFrontier().poll(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (best.url == null) {
+            return null;
+        }
+
+        best.busy = true;
+
+        // отставший обход не получает сразу все пропущенные ходы
+        virtualTime = Math.max(best.pass, virtualTime);
+        best.pass = virtualTime + STRIDE / Math.max(1, best.crawl.getPriority());
+
+        return best;
+    }
+
+    /**
+     * Обработка адреса, выданного планировщиком. Синхронная часть visit
+     * должна занять паузу и соединение хоста: пока она не вернёт future,
+     * обход не получает новых адресов.
+     */
+    public interface Visitor {
+        CompletableFuture<?> visit(SiteCrawl crawl, URL url);
+    }
+
+    private static class Entry {
+        private final SiteCrawl crawl;
+        private final Visitor visitor;
+        private final String host;
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private long pass;
+        private URL url;
+        private boolean busy;
+
+        private Entry(SiteCrawl crawl, Visitor visitor, String host) {
+            this.crawl = crawl;
+            this.visitor = visitor;
+            this.host = host;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package searchengine.crawler;
+
+/**
+ * Страница, уже сохранённая при прошлом обходе: её id, валидаторы
+ * для условного запроса и хеш индексируемого содержимого.
+ */
+public record KnownPage(long id, String path, String etag, String lastModified, String contentHash) {
+}
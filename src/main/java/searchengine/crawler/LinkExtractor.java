@@ -0,0 +1,71 @@
+package searchengine.crawler;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+public class LinkExtractor {
+    private final Set<String> excludedProtocols = Set.of("tel", "mailto", "file");
+
+    private final Set<String> excludedExtensions = Set.of(
+        "pdf", "txt", "djv", "djvu", "chm",
+        "doc", "docx", "csv", "xls", "xlsx",
+        "zip", "nc", "jpg", "ppt", "fig",
+        "m", "png", "tiff", "bmp", "jpeg",
+        "rar", "7z"
+    );
+
+    public List<URL> extract(Document doc, String siteUrl) {
+        List<URL> urls = new ArrayList<>();
+
+        for (Element link : doc.select("a[href]")) {
+            URL url = getURL(link.attr("abs:href"), siteUrl);
+
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+
+        return urls;
+    }
+
+    /**
+     * Приводит абсолютный адрес к виду, в котором он хранится в очереди
+     * обхода. Возвращает null для адресов чужих хостов, с параметрами
+     * или якорем и для файлов, которые не индексируются.
+     */
+    public URL getURL(String href, String siteUrl) {
+        if (href.contains("#") || href.contains("?")) {
+            return null;
+        }
+
+        URL url;
+
+        try {
+            url = new URL(href.endsWith("/") ? href.substring(0, href.length() - 1) : href);
+        } catch (MalformedURLException ignored) {
+            return null;
+        }
+
+        if (!siteUrl.contains(url.getHost()) ||
+            excludedProtocols.contains(url.getProtocol()) ||
+            excludedExtensions.contains(getFileExtension(url.getFile()))) {
+            return null;
+        }
+
+        return url;
+    }
+
+    private String getFileExtension(String fileName) {
+        return Optional.ofNullable(fileName)
+            .filter(f -> f.contains("."))
+            .map(f -> f.substring(fileName.lastIndexOf(".") + 1).toLowerCase())
+            .orElse("");
+    }
+}
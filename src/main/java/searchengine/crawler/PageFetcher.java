@@ -0,0 +1,232 @@
+package searchengine.crawler;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Скачивает страницы асинхронно через общий {@link HttpClient}: соединения
+ * переиспользуются, с серверами, которые его поддерживают, - по HTTP/2.
+ * Одновременных запросов к одному хосту не больше
+ * search-bot.connections-per-host, тело ответа не больше
+ * search-bot.max-body-size байт.
+ */
+@Component
+public class PageFetcher {
+    private static final Pattern CHARSET = Pattern.compile("(?i)charset=\"?([^\";]+)");
+    private static final Pattern XML_TYPE = Pattern.compile("(?i)(application|text)/\\w*\\+?xml.*");
+
+    @Value("${search-bot.user-agent}")
+    private String userAgent;
+
+    @Value("${search-bot.referrer}")
+    private String referrer;
+
+    @Value("${search-bot.connect-timeout:10000}")
+    private long connectTimeout;
+
+    @Value("${search-bot.request-timeout:30000}")
+    private long requestTimeout;
+
+    @Value("${search-bot.max-body-size:10485760}")
+    private long maxBodySize;
+
+    @Value("${search-bot.connections-per-host:4}")
+    private int connectionsPerHost;
+
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+    private HttpClient client;
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "page-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofMillis(connectTimeout))
+            .executor(executor)
+            .build();
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Запрашивает страницу, дождавшись свободного соединения с её хостом.
+     * Для известной страницы запрос условный. Ответ с ошибкой, не HTML
+     * или слишком большой завершает результат исключением.
+     */
+    public CompletableFuture<PageResponse> fetch(URL url, KnownPage previous) throws InterruptedException {
+        Semaphore permits = hosts.computeIfAbsent(url.getHost(), h -> new Semaphore(connectionsPerHost));
+        HttpRequest request;
+
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI())
+                .timeout(Duration.ofMillis(requestTimeout))
+                .header("User-Agent", userAgent)
+                .header("Referer", referrer);
+
+            if (previous != null && previous.etag() != null) {
+                builder.header("If-None-Match", previous.etag());
+            }
+
+            if (previous != null && previous.lastModified() != null) {
+                builder.header("If-Modified-Since", previous.lastModified());
+            }
+
+            request = builder.build();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        permits.acquire();
+
+        return client.sendAsync(request, this::subscriber)
+            .whenComplete((response, e) -> permits.release())
+            .thenApply(response -> toPageResponse(response, previous));
+    }
+
+    /**
+     * Проверяет, что запрос к хосту не будет ждать свободного соединения.
+     */
+    public boolean hasFreeConnection(String host) {
+        Semaphore permits = hosts.get(host);
+
+        return permits == null || permits.availablePermits() > 0;
+    }
+
+    private HttpResponse.BodySubscriber<byte[]> subscriber(HttpResponse.ResponseInfo info) {
+        if (!isAcceptable(info)) {
+            return HttpResponse.BodySubscribers.replacing(null);
+        }
+
+        return new LimitedBodySubscriber(maxBodySize);
+    }
+
+    private boolean isAcceptable(HttpResponse.ResponseInfo info) {
+        if (info.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return true;
+        }
+
+        if (info.statusCode() < 200 || info.statusCode() >= 300) {
+            return false;
+        }
+
+        if (info.headers().firstValueAsLong("Content-Length").orElse(0) > maxBodySize) {
+            return false;
+        }
+
+        String contentType = info.headers().firstValue("Content-Type").orElse(null);
+
+        return contentType == null || contentType.startsWith("text/") || XML_TYPE.matcher(contentType).matches();
+    }
+
+    private PageResponse toPageResponse(HttpResponse<byte[]> response, KnownPage previous) {
+        boolean notModified = response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+
+        // 304 на безусловный запрос не к чему применить - это такая же ошибка
+        if (response.body() == null || notModified && previous == null) {
+            throw new CompletionException(new IOException(
+                "Не удалось получить страницу " + response.uri() + ", код ответа " + response.statusCode()));
+        }
+
+        if (notModified) {
+            return new PageResponse(response.uri(), response.statusCode(), null, previous.etag(), previous.lastModified(), response.body());
+        }
+
+        String charset = null;
+        Matcher matcher = CHARSET.matcher(response.headers().firstValue("Content-Type").orElse(""));
+
+        if (matcher.find()) {
+            charset = matcher.group(1).trim();
+        }
+
+        return new PageResponse(
+            response.uri(),
+            response.statusCode(),
+            charset,
+            response.headers().firstValue("ETag").orElse(null),
+            response.headers().firstValue("Last-Modified").orElse(null),
+            response.body()
+        );
+    }
+
+    /**
+     * Собирает тело ответа в массив и обрывает загрузку, как только
+     * оно становится больше допустимого.
+     */
+    private static class LimitedBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final long limit;
+        private Flow.Subscription subscription;
+
+        private LimitedBodySubscriber(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            for (ByteBuffer item : items) {
+                if (result.isDone()) {
+                    return;
+                }
+
+                if (body.size() + item.remaining() > limit) {
+                    subscription.cancel();
+                    result.completeExceptionally(new IOException("Страница больше " + limit + " байт"));
+                    return;
+                }
+
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                body.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(body.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package searchengine.crawler;
+
+import java.net.URI;
+
+/**
+ * Ответ сервера на запрос страницы. Тело не декодируется: кодировку
+ * из заголовка или из разметки определяет разбор HTML. uri - адрес,
+ * с которого пришёл ответ после перенаправлений.
+ */
+public record PageResponse(URI uri, int code, String charset, String etag, String lastModified, byte[] body) {
+}
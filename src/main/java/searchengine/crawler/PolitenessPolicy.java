@@ -0,0 +1,37 @@
+package searchengine.crawler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PolitenessPolicy {
+    private final Map<String, AtomicLong> nextFetchTimes = new ConcurrentHashMap<>();
+    private final long delay;
+
+    public PolitenessPolicy(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Резервирует ближайший свободный слот для запроса к хосту и ждёт его.
+     * Запросы к разным хостам друг друга не задерживают.
+     */
+    public void await(String host) throws InterruptedException {
+        AtomicLong nextFetchTime = nextFetchTimes.computeIfAbsent(host, h -> new AtomicLong());
+        long slot = nextFetchTime.updateAndGet(t -> Math.max(t, System.currentTimeMillis()) + delay) - delay;
+        long wait = slot - System.currentTimeMillis();
+
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Время, раньше которого {@link #await(String)} для хоста будет ждать.
+     */
+    public long getNextFetchTime(String host) {
+        AtomicLong nextFetchTime = nextFetchTimes.get(host);
+
+        return nextFetchTime == null ? 0 : nextFetchTime.get();
+    }
+}
@@ -0,0 +1,175 @@
+package searchengine.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Правила robots.txt для нашего обходчика: группа, чей User-agent входит
+ * в search-bot.user-agent (самая длинная из таких), иначе группа "*".
+ * Из правил Allow и Disallow действует самое длинное подходящее к пути,
+ * при равной длине - Allow. Поддерживаются "*" и "$" в шаблонах.
+ */
+public class RobotsRules {
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), 0, List.of());
+
+    private final List<Rule> rules;
+    private final long crawlDelay;
+    private final List<String> sitemaps;
+
+    private RobotsRules(List<Rule> rules, long crawlDelay, List<String> sitemaps) {
+        this.rules = rules;
+        this.crawlDelay = crawlDelay;
+        this.sitemaps = sitemaps;
+    }
+
+    public static RobotsRules parse(String text, String userAgent) {
+        String agent = userAgent.toLowerCase(Locale.ROOT);
+        List<Group> groups = new ArrayList<>();
+        List<String> sitemaps = new ArrayList<>();
+        Group group = null;
+
+        for (String line : text.split("\r\n|\r|\n")) {
+            int comment = line.indexOf('#');
+
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+
+            int colon = line.indexOf(':');
+
+            if (colon < 0) {
+                continue;
+            }
+
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+
+            switch (key) {
+                case "user-agent" -> {
+                    if (group == null || group.hasRules) {
+                        group = new Group();
+                        groups.add(group);
+                    }
+
+                    group.agents.add(value.toLowerCase(Locale.ROOT));
+                }
+                case "allow", "disallow" -> {
+                    if (group != null) {
+                        group.hasRules = true;
+
+                        if (!value.isEmpty()) {
+                            group.rules.add(new Rule(value, key.equals("allow")));
+                        }
+                    }
+                }
+                case "crawl-delay" -> {
+                    if (group != null) {
+                        group.hasRules = true;
+
+                        try {
+                            group.crawlDelay = (long) (Double.parseDouble(value) * 1000);
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+                case "sitemap" -> sitemaps.add(value);
+                default -> {
+                }
+            }
+        }
+
+        String selected = "*";
+
+        for (Group g : groups) {
+            for (String a : g.agents) {
+                if (!a.equals("*") && agent.contains(a) && (selected.equals("*") || a.length() > selected.length())) {
+                    selected = a;
+                }
+            }
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        long crawlDelay = 0;
+
+        for (Group g : groups) {
+            if (g.agents.contains(selected)) {
+                rules.addAll(g.rules);
+                crawlDelay = Math.max(crawlDelay, g.crawlDelay);
+            }
+        }
+
+        return new RobotsRules(rules, crawlDelay, sitemaps);
+    }
+
+    public boolean isAllowed(String path) {
+        if (path.isEmpty()) {
+            path = "/";
+        }
+
+        Rule best = null;
+
+        for (Rule rule : rules) {
+            if (matches(rule.pattern(), path) && (best == null ||
+                rule.pattern().length() > best.pattern().length() ||
+                rule.pattern().length() == best.pattern().length() && rule.allow())) {
+                best = rule;
+            }
+        }
+
+        return best == null || best.allow();
+    }
+
+    /**
+     * Задержка между запросами в миллисекундах из Crawl-delay, 0 - не задана.
+     */
+    public long getCrawlDelay() {
+        return crawlDelay;
+    }
+
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+
+    private static boolean matches(String pattern, String path) {
+        boolean anchored = pattern.endsWith("$");
+
+        if (anchored) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+
+        String[] parts = pattern.split("\\*", -1);
+
+        if (!path.startsWith(parts[0])) {
+            return false;
+        }
+
+        int position = parts[0].length();
+
+        for (int i = 1; i < parts.length; i++) {
+            if (anchored && i == parts.length - 1) {
+                return path.length() - parts[i].length() >= position && path.endsWith(parts[i]);
+            }
+
+            int found = path.indexOf(parts[i], position);
+
+            if (found < 0) {
+                return false;
+            }
+
+            position = found + parts[i].length();
+        }
+
+        return !anchored || position == path.length();
+    }
+
+    private record Rule(String pattern, boolean allow) {
+    }
+
+    private static class Group {
+        private final List<String> agents = new ArrayList<>();
+        private final List<Rule> rules = new ArrayList<>();
+        private long crawlDelay;
+        private boolean hasRules;
+    }
+}
@@ -0,0 +1,106 @@
+package searchengine.crawler;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import searchengine.models.Site;
+
+import java.net.URL;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Getter
+@RequiredArgsConstructor
+public class SiteCrawl {
+    private final Site site;
+    private final int generation;
+    private final CrawlFrontier frontier;
+    private final PolitenessPolicy politeness;
+    private final int priority;
+    /**
+     * Страницы прошлого обхода по путям при обновлении сайта на месте;
+     * обработанные удаляются, оставшиеся к концу обхода исчезли с сайта.
+     */
+    private final Map<String, KnownPage> known;
+    private final RobotsRules robots;
+    private final CrawlCheckpoint checkpoint;
+    /**
+     * Даты изменения известных страниц по sitemap.
+     */
+    private final Map<String, Instant> listed = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    /**
+     * Ставит адрес в очередь обхода, если robots.txt разрешает его скачивать.
+     */
+    public boolean offer(URL url) {
+        if (!robots.isAllowed(url.getPath()) || !frontier.offer(url)) {
+            return false;
+        }
+
+        checkpoint.queued(url.getPath());
+
+        return true;
+    }
+
+    /**
+     * Отмечает окончание обработки адреса, взятого из очереди.
+     */
+    public void done(URL url) {
+        checkpoint.done(url.getPath());
+        frontier.done();
+    }
+
+    /**
+     * Ставит в очередь адрес из sitemap. Для уже проиндексированной
+     * страницы запоминает дату её изменения.
+     */
+    public boolean offer(SitemapEntry entry) {
+        String path = entry.url().getPath();
+
+        if (entry.lastModified() != null && known.containsKey(path)) {
+            listed.put(path, entry.lastModified());
+        }
+
+        return offer(entry.url());
+    }
+
+    /**
+     * Проверяет, что по sitemap страница не менялась с момента, который
+     * сервер указал в Last-Modified при её прошлом скачивании. Такую
+     * страницу можно не запрашивать.
+     */
+    public boolean isListedUnchanged(String path) {
+        KnownPage page = known.get(path);
+        Instant listedTime = listed.get(path);
+
+        if (page == null || listedTime == null || page.lastModified() == null) {
+            return false;
+        }
+
+        try {
+            return !listedTime.isAfter(
+                ZonedDateTime.parse(page.lastModified(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Отмечает, что обход прерван остановкой индексации и собранное
+     * поколение неполное.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Обход обновляет текущее поколение сайта, а не строит следующее.
+     */
+    public boolean isIncremental() {
+        return generation == site.getGeneration();
+    }
+}
@@ -0,0 +1,141 @@
+package searchengine.crawler;
+
+import lombok.RequiredArgsConstructor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Читает robots.txt и sitemap сайта перед обходом.
+ */
+@Component
+@RequiredArgsConstructor
+public class SiteDiscovery {
+    private static final int MAX_SITEMAPS = 100;
+
+    @Autowired
+    private final PageFetcher pageFetcher;
+
+    @Value("${search-bot.user-agent}")
+    private String userAgent;
+
+    private final LinkExtractor linkExtractor = new LinkExtractor();
+
+    /**
+     * Возвращает правила robots.txt сайта. Если файл не удалось получить,
+     * обходить можно всё.
+     */
+    public RobotsRules loadRobots(URL root) throws InterruptedException {
+        try {
+            PageResponse response = pageFetcher.fetch(new URL(root, "/robots.txt"), null).get();
+
+            return RobotsRules.parse(decode(response), userAgent);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception ignored) {
+            return RobotsRules.ALLOW_ALL;
+        }
+    }
+
+    /**
+     * Передаёт в consumer страницы сайта из sitemap, перечисленных
+     * в robots.txt (или из /sitemap.xml, если там их нет), раскрывая
+     * sitemap index. Читается не больше {@link #MAX_SITEMAPS} файлов;
+     * чтение прекращается, когда consumer возвращает false.
+     */
+    public void loadSitemaps(URL root, RobotsRules robots, Predicate<SitemapEntry> consumer)
+        throws InterruptedException {
+        Deque<String> sitemaps = new ArrayDeque<>(robots.getSitemaps());
+        Set<String> seen = new HashSet<>();
+
+        if (sitemaps.isEmpty()) {
+            sitemaps.add(root + "/sitemap.xml");
+        }
+
+        while (!sitemaps.isEmpty() && seen.size() < MAX_SITEMAPS) {
+            String location = sitemaps.poll();
+
+            if (!seen.add(location)) {
+                continue;
+            }
+
+            Document doc;
+
+            try {
+                PageResponse response = pageFetcher.fetch(new URL(location), null).get();
+                doc = Jsoup.parse(new ByteArrayInputStream(response.body()), response.charset(), response.uri().toString(),
+                    Parser.xmlParser());
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception ignored) {
+                continue;
+            }
+
+            for (Element loc : doc.select("sitemapindex > sitemap > loc")) {
+                sitemaps.add(loc.text().trim());
+            }
+
+            for (Element entry : doc.select("urlset > url")) {
+                Element loc = entry.selectFirst("loc");
+                URL url = loc == null ? null : linkExtractor.getURL(loc.text().trim(), root.toString());
+
+                if (url == null) {
+                    continue;
+                }
+
+                Element lastmod = entry.selectFirst("lastmod");
+
+                if (!consumer.test(new SitemapEntry(url, lastmod == null ? null : parseDate(lastmod.text().trim())))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String decode(PageResponse response) {
+        Charset charset = StandardCharsets.UTF_8;
+
+        try {
+            if (response.charset() != null) {
+                charset = Charset.forName(response.charset());
+            }
+        } catch (Exception ignored) {
+        }
+
+        return new String(response.body(), charset);
+    }
+
+    /**
+     * Разбирает lastmod в формате W3C Datetime. Для даты без времени
+     * берётся самый поздний момент, когда этот день мог закончиться.
+     */
+    private static Instant parseDate(String value) {
+        try {
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException ignored) {
+        }
+
+        try {
+            return LocalDate.parse(value).plusDays(1).atStartOfDay(ZoneOffset.ofHours(-12)).toInstant();
+        } catch (DateTimeParseException ignored) {
+        }
+
+        return null;
+    }
+}
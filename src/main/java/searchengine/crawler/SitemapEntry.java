@@ -0,0 +1,11 @@
+package searchengine.crawler;
+
+import java.net.URL;
+import java.time.Instant;
+
+/**
+ * Адрес страницы сайта из sitemap и время её последнего изменения
+ * (lastmod), если оно указано.
+ */
+public record SitemapEntry(URL url, Instant lastModified) {
+}
@@ -0,0 +1,48 @@
+package searchengine.crawler;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class VisitedSet {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Set<Long> hashes = ConcurrentHashMap.newKeySet();
+
+    public void addAll(Collection<String> paths) {
+        for (String path : paths) {
+            hashes.add(hash(path));
+        }
+    }
+
+    /**
+     * Возвращает {@code true}, если путь встретился впервые.
+     */
+    public boolean add(String path) {
+        return hashes.add(hash(path));
+    }
+
+    public void remove(String path) {
+        hashes.remove(hash(path));
+    }
+
+    public boolean contains(String path) {
+        return hashes.contains(hash(path));
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    private static long hash(String path) {
+        long h = FNV_OFFSET;
+
+        for (int i = 0; i < path.length(); i++) {
+            h ^= path.charAt(i);
+            h *= FNV_PRIME;
+        }
+
+        return h;
+    }
+}
@@ -0,0 +1,12 @@
+package searchengine.dto.statistics;
+
+import lombok.Data;
+
+@Data
+public class PipelineStageStatistics {
+    private String name;
+    private int queue;
+    private int workers;
+    private long processed;
+    private double throughput;
+}
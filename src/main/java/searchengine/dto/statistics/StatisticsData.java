@@ -8,4 +8,10 @@ import java.util.List;
 public class StatisticsData {
     private TotalStatistics total;
     private List<DetailedStatisticsItem> detailed;
+    private List<PipelineStageStatistics> pipeline;
+    private SearchCacheStatistics searchCache;
+    /**
+     * Состояние поискового индекса: LOADING, LOADED или FAILED (поиск идёт по базе).
+     */
+    private String searchIndex;
 }
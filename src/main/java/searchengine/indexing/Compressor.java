@@ -0,0 +1,64 @@
+package searchengine.indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие содержимого страниц для таблицы page_content. Разметка HTML
+ * сжимается Deflate в несколько раз.
+ */
+public class Compressor {
+    private static final int BUFFER_SIZE = 8192;
+
+    private Compressor() {
+    }
+
+    public static byte[] compress(String content) {
+        byte[] input = content.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 16);
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    public static String decompress(byte[] content) {
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length * 4);
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            inflater.setInput(content);
+
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,495 @@
+package searchengine.indexing;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.crawler.KnownPage;
+import searchengine.search.InvertedIndex;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class IndexWriter {
+    private static final String INSERT_PAGE =
+        "insert into page (id, site_id, generation, path, code, etag, last_modified, content_hash, title, text, sentences) " +
+        "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_VALIDATORS =
+        "update page set etag = ?, last_modified = ? where id = ?";
+    private static final String INSERT_CONTENT =
+        "insert into page_content (page_id, content) values (?, ?)";
+    private static final String INSERT_LEMMA =
+        "insert into lemma (id, site_id, generation, lemma, frequency) values (?, ?, ?, ?, ?)";
+    private static final String UPDATE_LEMMA =
+        "update lemma set frequency = ? where id = ?";
+    private static final String INSERT_INDEX =
+        "insert into `index` (id, page_id, lemma_id, `rank`, positions) values (?, ?, ?, ?, ?)";
+
+    @Autowired
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private final InvertedIndex invertedIndex;
+
+    @Autowired
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${search-bot.batch-size:1000}")
+    private int batchSize;
+
+    private final AtomicLong pageIds = new AtomicLong();
+    private final AtomicLong lemmaIds = new AtomicLong();
+    private final AtomicLong indexIds = new AtomicLong();
+
+    private final Map<Generation, Map<String, LemmaEntry>> siteLemmas = new ConcurrentHashMap<>();
+    private final Set<LemmaEntry> dirtyLemmas = ConcurrentHashMap.newKeySet();
+
+    private TransactionTemplate transactionTemplate;
+
+    private final Object bufferLock = new Object();
+    private final Object flushLock = new Object();
+    private List<Object[]> pendingPages = new ArrayList<>();
+    private List<Object[]> pendingContents = new ArrayList<>();
+    private List<Object[]> pendingIndexes = new ArrayList<>();
+    private List<PagePostings> pendingPostings = new ArrayList<>();
+    private List<Object[]> pendingValidators = new ArrayList<>();
+    private List<PageRemoval> pendingRemovals = new ArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        pageIds.set(maxId("page"));
+        lemmaIds.set(maxId("lemma"));
+        indexIds.set(maxId("`index`"));
+    }
+
+    /**
+     * Начинает новое поколение сайта: страницы с этим поколением пишутся
+     * рядом с текущими и попадают в отдельный поисковый индекс.
+     * Вызывается после удаления из базы остатков прерванной попытки.
+     */
+    public void begin(long siteId, int generation) {
+        flush();
+        siteLemmas.remove(new Generation(siteId, generation));
+        invertedIndex.begin(siteId, generation);
+    }
+
+    /**
+     * Продолжает строить поколение, начатое до перезапуска: поисковый
+     * индекс поколения собирается из уже записанных страниц.
+     */
+    public void resume(long siteId, int generation) {
+        flush();
+        siteLemmas.remove(new Generation(siteId, generation));
+        invertedIndex.resume(siteId, generation);
+    }
+
+    /**
+     * Записывает накопленное и уплотняет поисковый индекс поколения,
+     * переключая на него поиск. Вызывается по окончании индексации сайта.
+     */
+    public void commit(long siteId, int generation) {
+        flush();
+        invertedIndex.commit(siteId, generation);
+    }
+
+    /**
+     * Забывает поколение: недостроенное или сменённое новым. Строки
+     * поколения из базы удаляет вызывающий.
+     */
+    public void drop(long siteId, int generation) {
+        flush();
+        siteLemmas.remove(new Generation(siteId, generation));
+        invertedIndex.discard(siteId, generation);
+    }
+
+    /**
+     * Ставит страницу и её индекс в очередь на запись и возвращает
+     * присвоенный странице идентификатор. Частоты лемм считаются в памяти,
+     * в базу всё попадает пакетами при {@link #flush()}.
+     */
+    public long addPage(PageTask task) {
+        long siteId = task.getSite().getId();
+        int generation = task.getGeneration();
+        Map<String, Float> lemmas = task.getLemmas();
+        long pageId = pageIds.incrementAndGet();
+        Map<String, LemmaEntry> cache = getLemmas(new Generation(siteId, generation));
+        List<Object[]> indexes = new ArrayList<>(lemmas.size());
+
+        for (Map.Entry<String, Float> entry : lemmas.entrySet()) {
+            // частота растёт внутри compute, чтобы flush не удалил лемму между поиском и увеличением
+            LemmaEntry lemma = cache.compute(entry.getKey(), (l, e) -> {
+                LemmaEntry found = e != null ? e : new LemmaEntry(lemmaIds.incrementAndGet(), siteId, generation, l, false);
+                found.frequency.incrementAndGet();
+                return found;
+            });
+            dirtyLemmas.add(lemma);
+
+            indexes.add(new Object[] {
+                indexIds.incrementAndGet(), pageId, lemma.id, entry.getValue(),
+                Positions.encode(task.getPositions().get(entry.getKey()))
+            });
+        }
+
+        boolean full;
+
+        synchronized (bufferLock) {
+            pendingPages.add(new Object[] {
+                pageId, siteId, generation, task.getUrl().getPath(), task.getCode(),
+                task.getEtag(), task.getLastModified(), task.getContentHash(),
+                task.getTitle(), task.getText(), Sentences.encode(task.getSentences())
+            });
+            pendingContents.add(new Object[] { pageId, task.getContent() });
+            pendingIndexes.addAll(indexes);
+            pendingPostings.add(new PagePostings(siteId, generation, pageId, lemmas));
+            full = pendingIndexes.size() >= batchSize || pendingPages.size() >= batchSize;
+        }
+
+        if (full) {
+            flush();
+        }
+
+        return pageId;
+    }
+
+    /**
+     * Обновляет валидаторы неизменившейся страницы, если сервер прислал новые.
+     */
+    public void keepPage(PageTask task) {
+        KnownPage previous = task.getPrevious();
+
+        if (Objects.equals(previous.etag(), task.getEtag()) &&
+            Objects.equals(previous.lastModified(), task.getLastModified())) {
+            return;
+        }
+
+        boolean full;
+
+        synchronized (bufferLock) {
+            pendingValidators.add(new Object[] { task.getEtag(), task.getLastModified(), previous.id() });
+            full = pendingValidators.size() >= batchSize;
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Ставит в очередь удаление сохранённой страницы вместе с её индексом
+     * и сразу уменьшает частоты её лемм. Леммы, которых больше нет ни на
+     * одной странице, удаляются при {@link #flush()}.
+     */
+    public void removePage(long siteId, int generation, long pageId) {
+        Map<String, LemmaEntry> cache = getLemmas(new Generation(siteId, generation));
+        List<String> lemmas = jdbcTemplate.queryForList(
+            "select l.lemma from `index` i join lemma l on l.id = i.lemma_id where i.page_id = ?",
+            String.class, pageId
+        );
+
+        boolean full;
+
+        // частоты уменьшаются вместе с постановкой удаления в очередь: flush
+        // удаляет лемму, только если удаления её страниц попали в тот же пакет
+        synchronized (bufferLock) {
+            for (String l : lemmas) {
+                LemmaEntry lemma = cache.get(l);
+
+                if (lemma != null) {
+                    lemma.frequency.decrementAndGet();
+                    dirtyLemmas.add(lemma);
+                }
+            }
+
+            pendingRemovals.add(new PageRemoval(siteId, generation, pageId));
+            full = pendingRemovals.size() >= batchSize;
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Записывает накопленное одной транзакцией. Если пакет не записался,
+     * изменения без новых страниц записываются отдельно, а страницы - по
+     * одной: страница, которую база не приняла, пропускается, остальные
+     * сохраняются. Если не записались и изменения, пакет возвращается
+     * в очередь до следующей записи, а исключение пробрасывается.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Batch batch;
+
+            synchronized (bufferLock) {
+                batch = new Batch(pendingPages, pendingContents, pendingIndexes, pendingPostings,
+                    pendingValidators, pendingRemovals, new ArrayList<>());
+                pendingPages = new ArrayList<>();
+                pendingContents = new ArrayList<>();
+                pendingIndexes = new ArrayList<>();
+                pendingPostings = new ArrayList<>();
+                pendingValidators = new ArrayList<>();
+                pendingRemovals = new ArrayList<>();
+
+                for (Iterator<LemmaEntry> it = dirtyLemmas.iterator(); it.hasNext(); ) {
+                    LemmaEntry lemma = it.next();
+                    it.remove();
+                    batch.lemmas().add(new LemmaSnapshot(lemma, lemma.frequency.get()));
+                }
+            }
+
+            List<LemmaEntry> newLemmas = new ArrayList<>();
+            List<LemmaEntry> changedLemmas = new ArrayList<>();
+            List<LemmaEntry> unusedLemmas = new ArrayList<>();
+
+            for (LemmaSnapshot snapshot : batch.lemmas()) {
+                LemmaEntry lemma = snapshot.lemma();
+
+                if (snapshot.frequency() == 0 && lemma.frequency.get() == 0) {
+                    unusedLemmas.add(lemma);
+                } else if (lemma.persisted) {
+                    changedLemmas.add(lemma);
+                } else {
+                    newLemmas.add(lemma);
+                }
+            }
+
+            List<PagePostings> written;
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    writeChanges(batch, newLemmas, changedLemmas, unusedLemmas);
+                    batchUpdate(INSERT_PAGE, batch.pages());
+                    batchUpdate(INSERT_CONTENT, batch.contents());
+                    batchUpdate(INSERT_INDEX, batch.indexes());
+                });
+                written = batch.postings();
+            } catch (RuntimeException e) {
+                log.error("Не удалось записать пакет из {} страниц, страницы записываются по одной",
+                    batch.pages().size(), e);
+
+                try {
+                    transactionTemplate.executeWithoutResult(status ->
+                        writeChanges(batch, newLemmas, changedLemmas, unusedLemmas));
+                } catch (RuntimeException changesFailed) {
+                    restore(batch);
+                    throw changesFailed;
+                }
+
+                written = writePages(batch);
+            }
+
+            newLemmas.forEach(lemma -> lemma.persisted = true);
+
+            for (LemmaEntry lemma : unusedLemmas) {
+                // строка леммы удалена, но её успели снова встретить - запишется заново
+                if (!forget(lemma) && lemma.persisted) {
+                    lemma.persisted = false;
+                    dirtyLemmas.add(lemma);
+                }
+            }
+
+            for (PageRemoval page : batch.removals()) {
+                invertedIndex.removePage(page.siteId(), page.generation(), page.pageId());
+            }
+
+            for (PagePostings page : written) {
+                invertedIndex.addPage(page.siteId, page.generation, page.pageId, page.lemmas);
+            }
+        }
+    }
+
+    /**
+     * Записывает всё, кроме новых страниц: удаления, валидаторы и леммы.
+     */
+    private void writeChanges(Batch batch, List<LemmaEntry> newLemmas, List<LemmaEntry> changedLemmas,
+                              List<LemmaEntry> unusedLemmas) {
+        List<Object[]> removedIds = batch.removals().stream().map(r -> new Object[] { r.pageId() }).toList();
+        batchUpdate("delete from `index` where page_id = ?", removedIds);
+        batchUpdate("delete from page_content where page_id = ?", removedIds);
+        batchUpdate("delete from page where id = ?", removedIds);
+        batchUpdate("delete from lemma where id = ?", unusedLemmas.stream()
+            .filter(lemma -> lemma.persisted)
+            .map(lemma -> new Object[] { lemma.id })
+            .toList());
+        batchUpdate(UPDATE_VALIDATORS, batch.validators());
+        batchUpdate(INSERT_LEMMA, newLemmas.stream()
+            .map(lemma -> new Object[] {
+                lemma.id, lemma.siteId, lemma.generation, lemma.lemma, lemma.frequency.get()
+            })
+            .toList());
+        batchUpdate(UPDATE_LEMMA, changedLemmas.stream()
+            .map(lemma -> new Object[] { lemma.frequency.get(), lemma.id })
+            .toList());
+    }
+
+    /**
+     * Записывает страницы пакета по одной и возвращает записанные. Частоты
+     * лемм пропущенной страницы уменьшаются, как при её удалении.
+     */
+    private List<PagePostings> writePages(Batch batch) {
+        Map<Long, List<Object[]>> indexes = new HashMap<>();
+
+        for (Object[] index : batch.indexes()) {
+            indexes.computeIfAbsent((Long) index[1], id -> new ArrayList<>()).add(index);
+        }
+
+        List<PagePostings> written = new ArrayList<>();
+
+        for (int i = 0; i < batch.pages().size(); i++) {
+            Object[] page = batch.pages().get(i);
+            Object[] content = batch.contents().get(i);
+            PagePostings postings = batch.postings().get(i);
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    jdbcTemplate.update(INSERT_PAGE, page);
+                    jdbcTemplate.update(INSERT_CONTENT, content);
+                    batchUpdate(INSERT_INDEX, indexes.getOrDefault(postings.pageId, List.of()));
+                });
+                written.add(postings);
+            } catch (RuntimeException e) {
+                log.error("Не удалось сохранить страницу {}", page[3], e);
+                discount(postings);
+            }
+        }
+
+        return written;
+    }
+
+    private void discount(PagePostings page) {
+        Map<String, LemmaEntry> cache = siteLemmas.get(new Generation(page.siteId, page.generation));
+
+        if (cache == null) {
+            return;
+        }
+
+        synchronized (bufferLock) {
+            for (String l : page.lemmas.keySet()) {
+                LemmaEntry lemma = cache.get(l);
+
+                if (lemma != null) {
+                    lemma.frequency.decrementAndGet();
+                    dirtyLemmas.add(lemma);
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает незаписанный пакет в начало очереди.
+     */
+    private void restore(Batch batch) {
+        synchronized (bufferLock) {
+            pendingPages.addAll(0, batch.pages());
+            pendingContents.addAll(0, batch.contents());
+            pendingIndexes.addAll(0, batch.indexes());
+            pendingPostings.addAll(0, batch.postings());
+            pendingValidators.addAll(0, batch.validators());
+            pendingRemovals.addAll(0, batch.removals());
+            batch.lemmas().forEach(snapshot -> dirtyLemmas.add(snapshot.lemma()));
+        }
+    }
+
+    private void batchUpdate(String sql, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(rows.size(), from + batchSize)));
+        }
+    }
+
+    /**
+     * Убирает из кеша лемму, которой больше нет ни на одной странице.
+     */
+    private boolean forget(LemmaEntry lemma) {
+        Map<String, LemmaEntry> cache = siteLemmas.get(new Generation(lemma.siteId, lemma.generation));
+        boolean[] forgotten = { cache == null && lemma.frequency.get() == 0 };
+
+        if (cache != null) {
+            cache.computeIfPresent(lemma.lemma, (l, e) -> {
+                forgotten[0] = e == lemma && e.frequency.get() == 0;
+                return forgotten[0] ? null : e;
+            });
+        }
+
+        return forgotten[0];
+    }
+
+    private Map<String, LemmaEntry> getLemmas(Generation key) {
+        return siteLemmas.computeIfAbsent(key, this::loadLemmas);
+    }
+
+    private Map<String, LemmaEntry> loadLemmas(Generation key) {
+        Map<String, LemmaEntry> lemmas = new ConcurrentHashMap<>();
+
+        jdbcTemplate.query("select id, lemma, frequency from lemma where site_id = ? and generation = ?", rs -> {
+            LemmaEntry lemma = new LemmaEntry(rs.getLong(1), key.siteId(), key.generation(), rs.getString(2), true);
+            lemma.frequency.set(rs.getInt(3));
+            lemmas.put(lemma.lemma, lemma);
+        }, key.siteId(), key.generation());
+
+        return lemmas;
+    }
+
+    private long maxId(String table) {
+        Long id = jdbcTemplate.queryForObject("select max(id) from " + table, Long.class);
+
+        return id == null ? 0 : id;
+    }
+
+    private record Generation(long siteId, int generation) {
+    }
+
+    private record LemmaSnapshot(LemmaEntry lemma, int frequency) {
+    }
+
+    private record Batch(List<Object[]> pages, List<Object[]> contents, List<Object[]> indexes,
+                         List<PagePostings> postings, List<Object[]> validators, List<PageRemoval> removals,
+                         List<LemmaSnapshot> lemmas) {
+    }
+
+    private record PageRemoval(long siteId, int generation, long pageId) {
+    }
+
+    private static class PagePostings {
+        private final long siteId;
+        private final int generation;
+        private final long pageId;
+        private final Map<String, Float> lemmas;
+
+        private PagePostings(long siteId, int generation, long pageId, Map<String, Float> lemmas) {
+            this.siteId = siteId;
+            this.generation = generation;
+            this.pageId = pageId;
+            this.lemmas = lemmas;
+        }
+    }
+
+    private static class LemmaEntry {
+        private final long id;
+        private final long siteId;
+        private final int generation;
+        private final String lemma;
+        private final AtomicInteger frequency = new AtomicInteger();
+        private volatile boolean persisted;
+
+        private LemmaEntry(long id, long siteId, int generation, String lemma, boolean persisted) {
+            this.id = id;
+            this.siteId = siteId;
+            this.generation = generation;
+            this.lemma = lemma;
+            this.persisted = persisted;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package searchengine.indexing;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import searchengine.LemmaFinder;
+import searchengine.crawler.CrawlScheduler;
+import searchengine.crawler.LinkExtractor;
+import searchengine.crawler.SiteCrawl;
+import searchengine.dto.statistics.PipelineStageStatistics;
+import searchengine.repositories.PageContentRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexingPipeline {
+    @Autowired
+    private final IndexWriter indexWriter;
+
+    @Autowired
+    private final LemmaFinder lemmaFinder;
+
+    @Autowired
+    private final PageContentRepository pageContentRepository;
+
+    @Autowired
+    private final CrawlScheduler crawlScheduler;
+
+    @Value("${search-bot.title-weight:2.0}")
+    private float titleWeight;
+
+    @Value("${search-bot.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${search-bot.parse-threads:2}")
+    private int parseThreads;
+
+    @Value("${search-bot.lemmatize-threads:0}")
+    private int lemmatizeThreads;
+
+    @Value("${search-bot.persist-threads:1}")
+    private int persistThreads;
+
+    private final LinkExtractor linkExtractor = new LinkExtractor();
+
+    private final Set<SiteCrawl> crawls = ConcurrentHashMap.newKeySet();
+
+    private final StageMeter fetchMeter = new StageMeter();
+
+    private PipelineStage parseStage;
+    private PipelineStage lemmatizeStage;
+    private PipelineStage persistStage;
+
+    @PostConstruct
+    public void start() {
+        if (lemmatizeThreads <= 0) {
+            lemmatizeThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        persistStage = new PipelineStage("persist", queueCapacity, persistThreads, this::persist);
+        lemmatizeStage = new PipelineStage("lemmatize", queueCapacity, lemmatizeThreads, task -> {
+            lemmatize(task);
+            persistStage.put(task);
+        });
+        parseStage = new PipelineStage("parse", queueCapacity, parseThreads, task -> {
+            parse(task);
+
+            if (task.isUnchanged()) {
+                keep(task);
+            } else {
+                lemmatizeStage.put(task);
+            }
+        });
+
+        persistStage.start();
+        lemmatizeStage.start();
+        parseStage.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        parseStage.stop();
+        lemmatizeStage.stop();
+        persistStage.stop();
+    }
+
+    public void register(SiteCrawl crawl) {
+        crawls.add(crawl);
+    }
+
+    public void unregister(SiteCrawl crawl) {
+        crawls.remove(crawl);
+    }
+
+    /**
+     * Передаёт скачанную страницу на разбор. Если конвейер переполнен,
+     * вызывающий поток ждёт, пока в очереди разбора освободится место.
+     */
+    public void submit(PageTask task) throws InterruptedException {
+        fetchMeter.mark();
+        parseStage.put(task);
+    }
+
+    /**
+     * Проводит страницу через все этапы в текущем потоке.
+     */
+    public void process(PageTask task) throws IOException {
+        parse(task);
+
+        if (task.isUnchanged()) {
+            keep(task);
+        } else {
+            lemmatize(task);
+            persist(task);
+        }
+    }
+
+    public List<PipelineStageStatistics> getStatistics() {
+        PipelineStageStatistics fetch = new PipelineStageStatistics();
+        fetch.setName("fetch");
+        fetch.setQueue(crawls.stream().mapToInt(c -> c.getFrontier().size()).sum());
+        fetch.setWorkers(crawlScheduler.getInFlight());
+        fetch.setProcessed(fetchMeter.getProcessed());
+        fetch.setThroughput(fetchMeter.getThroughput());
+
+        List<PipelineStageStatistics> statistics = new ArrayList<>();
+        statistics.add(fetch);
+        statistics.add(parseStage.getStatistics());
+        statistics.add(lemmatizeStage.getStatistics());
+        statistics.add(persistStage.getStatistics());
+
+        return statistics;
+    }
+
+    /**
+     * Разбирает страницу. На ответ 304 ссылки для обхода берутся из
+     * сохранённого HTML; страница, у которой не изменились заголовок
+     * и текст, отмечается как неизменная.
+     */
+    private void parse(PageTask task) throws IOException {
+        Document doc;
+
+        if (task.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            String content = pageContentRepository.findById(task.getPrevious().id())
+                .map(c -> Compressor.decompress(c.getContent()))
+                .orElse("");
+            doc = Jsoup.parse(content, task.getLocation().toString());
+            task.setUnchanged(true);
+        } else {
+            doc = Jsoup.parse(new ByteArrayInputStream(task.getBody()), task.getCharset(), task.getLocation().toString());
+            task.setContent(Compressor.compress(doc.outerHtml()));
+            task.setTitle(doc.title());
+            task.setHeadings(doc.select("h1, h2, h3, h4, h5, h6").text());
+            task.setText(doc.body() == null ? "" : doc.body().text());
+            task.setContentHash(hash(task.getTitle(), task.getHeadings(), task.getText()));
+            task.setUnchanged(task.getPrevious() != null &&
+                task.getContentHash().equals(task.getPrevious().contentHash()));
+
+            if (!task.isUnchanged()) {
+                task.setSentences(Sentences.split(task.getText()));
+            }
+        }
+
+        task.setBody(null);
+
+        if (task.getCrawl() != null) {
+            for (URL url : linkExtractor.extract(doc, task.getSite().getUrl())) {
+                task.getCrawl().offer(url);
+            }
+        }
+    }
+
+    /**
+     * Ранг леммы на странице - число её вхождений в видимый текст плюс
+     * вхождения в заголовок и подзаголовки с весом search-bot.title-weight.
+     * Смещения вхождений в текст сохраняются для подсветки в сниппетах.
+     */
+    private void lemmatize(PageTask task) {
+        HashMap<String, int[]> textLemmas = lemmaFinder.textToLemmaPositions(task.getText());
+        HashMap<String, Integer> titleLemmas = lemmaFinder.textToLemmas(task.getTitle() + " " + task.getHeadings());
+
+        Map<String, Float> lemmas = new HashMap<>();
+        textLemmas.forEach((lemma, starts) -> lemmas.put(lemma, (float) starts.length));
+        titleLemmas.forEach((lemma, count) -> lemmas.merge(lemma, titleWeight * count, Float::sum));
+
+        task.setLemmas(lemmas);
+        task.setPositions(textLemmas);
+    }
+
+    private void persist(PageTask task) {
+        if (task.getPrevious() != null) {
+            indexWriter.removePage(task.getSite().getId(), task.getGeneration(), task.getPrevious().id());
+        }
+
+        indexWriter.addPage(task);
+        task.finish();
+
+        log.debug("Проиндексирована страница {}", task.getUrl());
+    }
+
+    private void keep(PageTask task) {
+        indexWriter.keepPage(task);
+        task.finish();
+    }
+
+    private static String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package searchengine.indexing;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import searchengine.crawler.KnownPage;
+import searchengine.crawler.SiteCrawl;
+import searchengine.models.Site;
+
+import java.net.URL;
+import java.util.Map;
+
+@Getter
+@Setter
+@RequiredArgsConstructor
+public class PageTask {
+    private final SiteCrawl crawl;
+    private final Site site;
+    private final URL url;
+    /**
+     * Адрес, с которого страница получена после перенаправлений;
+     * относительные ссылки разрешаются от него.
+     */
+    private URL location;
+    private int generation;
+    private int code;
+    private KnownPage previous;
+    private String etag;
+    private String lastModified;
+    private String contentHash;
+    /**
+     * Индексируемое содержимое не изменилось с прошлого обхода,
+     * лемматизировать и сохранять страницу заново не нужно.
+     */
+    private boolean unchanged;
+    private byte[] body;
+    private String charset;
+    private byte[] content;
+    private String title;
+    private String headings;
+    private String text;
+    private int[] sentences;
+    private Map<String, Float> lemmas;
+    private Map<String, int[]> positions;
+
+    /**
+     * Сообщает обходу сайта, что страница прошла конвейер до конца
+     * (или выбыла из него из-за ошибки).
+     */
+    public void finish() {
+        if (crawl != null) {
+            if (previous != null) {
+                crawl.getKnown().remove(previous.path());
+            }
+
+            crawl.done(url);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package searchengine.indexing;
+
+import lombok.Getter;
+import searchengine.dto.statistics.PipelineStageStatistics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineStage {
+    private final String name;
+    private final BlockingQueue<PageTask> queue;
+    @Getter
+    private final int workers;
+    private final Handler handler;
+    private final StageMeter meter = new StageMeter();
+    private ExecutorService executor;
+
+    public PipelineStage(String name, int capacity, int workers, Handler handler) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.workers = workers;
+        this.handler = handler;
+    }
+
+    public void start() {
+        AtomicInteger number = new AtomicInteger();
+
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, name + "-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Ставит страницу в очередь этапа, ожидая свободного места,
+     * если этап не успевает её разбирать.
+     */
+    public void put(PageTask task) throws InterruptedException {
+        queue.put(task);
+    }
+
+    public PipelineStageStatistics getStatistics() {
+        PipelineStageStatistics statistics = new PipelineStageStatistics();
+        statistics.setName(name);
+        statistics.setQueue(queue.size());
+        statistics.setWorkers(workers);
+        statistics.setProcessed(meter.getProcessed());
+        statistics.setThroughput(meter.getThroughput());
+
+        return statistics;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            PageTask task;
+
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                handler.handle(task);
+                meter.mark();
+            } catch (InterruptedException e) {
+                task.finish();
+                return;
+            } catch (Exception ignored) {
+                task.finish();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(PageTask task) throws Exception;
+    }
+}
@@ -0,0 +1,66 @@
+package searchengine.indexing;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Смещения вхождений леммы в видимый текст страницы, как они хранятся
+ * в столбце index.positions: разности соседних смещений в varint.
+ */
+public class Positions {
+    private static final byte[] EMPTY = new byte[0];
+
+    private Positions() {
+    }
+
+    public static byte[] encode(int[] starts) {
+        if (starts == null || starts.length == 0) {
+            return EMPTY;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(starts.length * 2);
+        int previous = 0;
+
+        for (int start : starts) {
+            int delta = start - previous;
+            previous = start;
+
+            while ((delta & ~0x7F) != 0) {
+                out.write((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+
+            out.write(delta);
+        }
+
+        return out.toByteArray();
+    }
+
+    public static int[] decode(byte[] bytes) {
+        if (bytes == null) {
+            return new int[0];
+        }
+
+        int[] starts = new int[bytes.length];
+        int size = 0;
+        int previous = 0;
+
+        for (int i = 0; i < bytes.length; ) {
+            int delta = 0;
+
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[i++];
+                delta |= (b & 0x7F) << shift;
+
+                if (b >= 0) {
+                    break;
+                }
+            }
+
+            previous += delta;
+            starts[size++] = previous;
+        }
+
+        return Arrays.copyOf(starts, size);
+    }
+}
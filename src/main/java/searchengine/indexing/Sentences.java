@@ -0,0 +1,46 @@
+package searchengine.indexing;
+
+import java.nio.ByteBuffer;
+import java.text.BreakIterator;
+import java.util.Arrays;
+
+/**
+ * Границы предложений видимого текста страницы. Хранятся в базе рядом
+ * с текстом как последовательность смещений концов предложений.
+ */
+public class Sentences {
+    private Sentences() {
+    }
+
+    public static int[] split(String text) {
+        BreakIterator bi = BreakIterator.getSentenceInstance();
+        bi.setText(text);
+
+        int[] ends = new int[16];
+        int size = 0;
+
+        for (int end = bi.next(); end != BreakIterator.DONE; end = bi.next()) {
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+
+            ends[size++] = end;
+        }
+
+        return Arrays.copyOf(ends, size);
+    }
+
+    public static byte[] encode(int[] ends) {
+        ByteBuffer buffer = ByteBuffer.allocate(ends.length * Integer.BYTES);
+        buffer.asIntBuffer().put(ends);
+
+        return buffer.array();
+    }
+
+    public static int[] decode(byte[] bytes) {
+        int[] ends = new int[bytes.length / Integer.BYTES];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(ends);
+
+        return ends;
+    }
+}
@@ -0,0 +1,36 @@
+package searchengine.indexing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StageMeter {
+    private static final long MIN_INTERVAL = 1000;
+
+    private final AtomicLong processed = new AtomicLong();
+    private long lastProcessed;
+    private long lastTime = System.currentTimeMillis();
+    private double throughput;
+
+    public void mark() {
+        processed.incrementAndGet();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Число обработанных страниц в секунду с момента предыдущего замера.
+     */
+    public synchronized double getThroughput() {
+        long now = System.currentTimeMillis();
+
+        if (now - lastTime >= MIN_INTERVAL) {
+            long current = processed.get();
+            throughput = (current - lastProcessed) * 1000.0 / (now - lastTime);
+            lastProcessed = current;
+            lastTime = now;
+        }
+
+        return throughput;
+    }
+}
@@ -12,7 +12,12 @@ import java.util.Objects;
 @ToString
 @RequiredArgsConstructor
 @Entity
-@Table(name = "`index`")
+@Table(name = "`index`", indexes = {
+    @javax.persistence.Index(
+        name = "idx_page_id",
+        columnList = "page_id"
+    )
+})
 @Transactional
 public class Index {
     @Id
@@ -28,6 +33,13 @@ public class Index {
     @Column(nullable = false)
     private float rank;
 
+    /**
+     * Смещения вхождений леммы в текст страницы, см. {@link searchengine.indexing.Positions}.
+     */
+    @Column(columnDefinition = "MEDIUMBLOB")
+    @ToString.Exclude
+    private byte[] positions;
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -17,6 +17,10 @@ import java.util.Objects;
     @Index(
         name = "idx_lemma",
         columnList = "lemma"
+    ),
+    @Index(
+        name = "idx_lemma_site_generation",
+        columnList = "site_id, generation"
     )
 })
 @Transactional
@@ -34,6 +38,9 @@ public class Lemma {
     @Column(nullable = false)
     private int frequency;
 
+    @Column(columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int generation;
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -17,6 +17,10 @@ import java.util.Objects;
     @Index(
         name = "idx_path",
         columnList = "path"
+    ),
+    @Index(
+        name = "idx_page_site_generation",
+        columnList = "site_id, generation"
     )
 })
 @Transactional
@@ -34,8 +38,34 @@ public class Page {
     @Column(nullable = false)
     private int code;
 
-    @Column(columnDefinition = "MEDIUMTEXT", nullable = false)
-    private String content;
+    @Column(columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int generation;
+
+    @Column(columnDefinition = "VARCHAR(255)")
+    private String etag;
+
+    @Column(name = "last_modified", columnDefinition = "VARCHAR(64)")
+    private String lastModified;
+
+    /**
+     * SHA-256 заголовка и текста страницы - если он не изменился,
+     * страница не лемматизируется заново.
+     */
+    @Column(name = "content_hash", columnDefinition = "CHAR(64)")
+    private String contentHash;
+
+    @Column(columnDefinition = "TEXT")
+    private String title;
+
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String text;
+
+    /**
+     * Концы предложений в {@link #text}, см. {@link searchengine.indexing.Sentences}.
+     */
+    @Column(columnDefinition = "MEDIUMBLOB")
+    @ToString.Exclude
+    private byte[] sentences;
 
     @ManyToOne
     @JoinColumn(name = "site_id")
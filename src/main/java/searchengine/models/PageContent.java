@@ -0,0 +1,43 @@
+package searchengine.models;
+
+import lombok.*;
+import org.hibernate.Hibernate;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.*;
+import java.util.Objects;
+
+/**
+ * HTML страницы, сжатый {@link searchengine.indexing.Compressor}. Хранится
+ * отдельно от {@link Page}, чтобы загрузка страниц не тянула за собой
+ * их содержимое; читается только когда оно действительно нужно.
+ */
+@Getter
+@Setter
+@ToString
+@RequiredArgsConstructor
+@Entity
+@Table(name = "page_content")
+@Transactional
+public class PageContent {
+    @Id
+    @Column(name = "page_id")
+    private long pageId;
+
+    @Column(columnDefinition = "MEDIUMBLOB", nullable = false)
+    @ToString.Exclude
+    private byte[] content;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) return false;
+        PageContent pageContent = (PageContent) o;
+        return Objects.equals(pageId, pageContent.pageId);
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
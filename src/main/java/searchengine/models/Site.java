@@ -6,7 +6,6 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
 import java.util.Date;
-import java.util.List;
 import java.util.Objects;
 
 @Getter
@@ -37,9 +36,12 @@ public class Site {
     @Column(columnDefinition = "VARCHAR(255)", nullable = false)
     private String name;
 
-    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER, mappedBy = "site")
-    @ToString.Exclude
-    private List<Page> pages;
+    /**
+     * Поколение страниц и лемм сайта, по которому сейчас идёт поиск.
+     * Переиндексация строит следующее поколение рядом с ним.
+     */
+    @Column(columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int generation;
 
     @Override
     public boolean equals(Object o) {
@@ -2,11 +2,13 @@ package searchengine.repositories;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import searchengine.models.Index;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -27,4 +29,58 @@ public interface IndexRepository extends JpaRepository<Index, Long> {
         nativeQuery = true
     )
     List<Index> findByLemmaIdAndSiteId(long lemmaId, long siteId);
+    @Modifying
+    @Query(value =
+        "delete i " +
+        "  from `index` i " +
+        "  join page p " +
+        "    on p.`id` = i.`page_id` " +
+        " where p.`site_id` = ?1" +
+        "   and p.`generation` = ?2",
+        nativeQuery = true
+    )
+    void deleteBySiteIdAndGeneration(long siteId, int generation);
+
+    /**
+     * Ранги лемм запроса на страницах-кандидатах вместе с частотой леммы
+     * на сайте страницы - всё, что нужно для оценки, одним запросом.
+     */
+    @Query(value =
+        "select i.`page_id` as pageId, i.`rank` as `rank`, " +
+        "       l.`frequency` as frequency, l.`site_id` as siteId " +
+        "  from `index` i " +
+        "  join lemma l " +
+        "    on l.`id` = i.`lemma_id` " +
+        " where i.`page_id` in ?1" +
+        "   and l.`lemma` in ?2",
+        nativeQuery = true
+    )
+    List<LemmaRank> findRanks(Collection<Long> pageIds, Collection<String> lemmas);
+
+    /**
+     * Смещения вхождений лемм запроса в текст страниц для сниппетов.
+     */
+    @Query(value =
+        "select i.`page_id` as pageId, l.`lemma` as lemma, i.`positions` as positions " +
+        "  from `index` i " +
+        "  join lemma l " +
+        "    on l.`id` = i.`lemma_id` " +
+        " where i.`page_id` in ?1" +
+        "   and l.`lemma` in ?2",
+        nativeQuery = true
+    )
+    List<LemmaPositions> findPositions(Collection<Long> pageIds, Collection<String> lemmas);
+
+    interface LemmaRank {
+        long getPageId();
+        float getRank();
+        int getFrequency();
+        long getSiteId();
+    }
+
+    interface LemmaPositions {
+        long getPageId();
+        String getLemma();
+        byte[] getPositions();
+    }
 }
@@ -2,6 +2,8 @@ package searchengine.repositories;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import searchengine.models.Lemma;
@@ -12,7 +14,9 @@ import java.util.List;
 @Transactional
 public interface LemmaRepository extends JpaRepository<Lemma, Long> {
     @NotNull List<Lemma> findAll();
-    Lemma findByLemma(String lemma);
-    int countBySiteId(long siteId);
-    void deleteBySiteId(long siteId);
+    List<Lemma> findByLemma(String lemma);
+    int countBySiteIdAndGeneration(long siteId, int generation);
+    @Modifying
+    @Query(value = "delete from lemma where site_id = ?1 and generation = ?2", nativeQuery = true)
+    void deleteBySiteIdAndGeneration(long siteId, int generation);
 }
@@ -0,0 +1,24 @@
+package searchengine.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.models.PageContent;
+
+@Repository
+@Transactional
+public interface PageContentRepository extends JpaRepository<PageContent, Long> {
+    @Modifying
+    @Query(value =
+        "delete c " +
+        "  from page_content c " +
+        "  join page p " +
+        "    on p.`id` = c.`page_id` " +
+        " where p.`site_id` = ?1" +
+        "   and p.`generation` = ?2",
+        nativeQuery = true
+    )
+    void deleteBySiteIdAndGeneration(long siteId, int generation);
+}
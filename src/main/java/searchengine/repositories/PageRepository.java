@@ -2,13 +2,14 @@ package searchengine.repositories;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
+import searchengine.crawler.KnownPage;
 import searchengine.models.Page;
 
 import java.util.List;
-import java.util.Set;
 
 @Repository
 @Transactional
@@ -16,39 +17,29 @@ public interface PageRepository extends JpaRepository<Page, Long> {
     @NotNull List<Page> findAll();
     Page findDistinctBySiteIdAndPath(long siteId, String path);
     Page findByPath(String path);
-    void deleteBySiteId(long siteId);
-    int countBySiteId(long siteId);
-    Page findById(long id);
-    List<Page> findByIdIn(List<Long> ids);
-    @Query(value =
-        "select p.id, " +
-        "       count(1) " +
-        "  from page p, " +
-        "       `index` i, " +
-        "       lemma l " +
-        " where p.id = i.page_id " +
-        "   and l.id = i.lemma_id " +
-        "   and l.lemma in (?1) " +
-        "  group by p.id " +
-        "  order by count(1) desc " +
-        "  limit 0, 10",
-        nativeQuery = true
+    @Query("select p.id from Page p where p.siteId = ?1 and p.generation = ?2 and p.path = ?3")
+    Long findIdBySiteIdAndGenerationAndPath(long siteId, int generation, String path);
+    @Query(
+        "select new searchengine.crawler.KnownPage(p.id, p.path, p.etag, p.lastModified, p.contentHash) " +
+        "  from Page p " +
+        " where p.siteId = ?1 " +
+        "   and p.generation = ?2"
     )
-    List<Long> findIdsByLemmaName(Set<String> lemmaNames);
+    List<KnownPage> findKnownPages(long siteId, int generation);
+    @Modifying
+    @Query(value = "delete from page where site_id = ?1 and generation = ?2", nativeQuery = true)
+    void deleteBySiteIdAndGeneration(long siteId, int generation);
+    int countBySiteIdAndGeneration(long siteId, int generation);
     @Query(value =
-        "select p.id, " +
-        "       count(1) " +
-        "  from page p, " +
-        "       `index` i, " +
-        "       lemma l " +
-        " where p.id = i.page_id " +
-        "   and l.id = i.lemma_id " +
-        "   and l.lemma in (?1) " +
-        "   and p.site_id = ?2" +
-        "  group by p.id " +
-        "  order by count(1) desc " +
-        "  limit 0, 10",
+        "select count(*) " +
+        "  from page p " +
+        "  join site s " +
+        "    on s.`id` = p.`site_id` " +
+        "   and s.`generation` = p.`generation` " +
+        " where p.`site_id` = ?1",
         nativeQuery = true
     )
-    List<Long> findIdsByLemmaNameAndSiteId(Set<String> lemmaNames, long siteId);
+    int countLiveBySiteId(long siteId);
+    Page findById(long id);
+    List<Page> findByIdIn(List<Long> ids);
 }
@@ -0,0 +1,23 @@
+package searchengine.search;
+
+/**
+ * Оценка BM25. Частота леммы на странице - её ранг из таблицы index,
+ * длина страницы - сумма рангов всех её лемм.
+ */
+public class Bm25 {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private Bm25() {
+    }
+
+    public static double idf(int pageCount, int frequency) {
+        return Math.log(1 + (pageCount - frequency + 0.5) / (frequency + 0.5));
+    }
+
+    public static double score(double idf, float rank, float length, double averageLength) {
+        double norm = averageLength > 0 ? length / averageLength : 1;
+
+        return idf * rank * (K1 + 1) / (rank + K1 * (1 - B + B * norm));
+    }
+}
@@ -0,0 +1,256 @@
+package searchengine.search;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Индекс для обслуживания поисковых запросов без обращений к базе.
+ * По окончании индексации сайта его сегмент сохраняется в каталог
+ * search-bot.index-path; при запуске сегменты отображаются в память
+ * из файлов, а по базе индекс строится заново, только если файла нет
+ * или страницы сайта с тех пор изменились. Дальше индексатор
+ * поддерживает индекс в актуальном состоянии. Если загрузить индекс
+ * не удалось, поиск идёт по базе.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class InvertedIndex {
+    @Autowired
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${search-bot.index-path:index}")
+    private String indexPath;
+
+    private final Map<Long, SiteIndex> sites = new ConcurrentHashMap<>();
+    private final Map<Long, SiteIndex> building = new ConcurrentHashMap<>();
+
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile boolean loaded;
+    private volatile boolean failed;
+
+    @PostConstruct
+    public void init() {
+        Thread loader = new Thread(this::load, "inverted-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Ждёт окончания загрузки. Возвращает false, если индекс загрузить
+     * не удалось.
+     */
+    public boolean awaitLoaded() throws InterruptedException {
+        ready.await();
+
+        return loaded;
+    }
+
+    /**
+     * Индекс, по которому идёт поиск по сайту. Для сайта, которого в индексе
+     * ещё нет, возвращается пустой индекс; он нигде не запоминается.
+     */
+    public SiteIndex get(long siteId) {
+        SiteIndex index = sites.get(siteId);
+
+        return index != null ? index : new SiteIndex(siteId, 0);
+    }
+
+    public Collection<SiteIndex> getSites() {
+        return sites.values();
+    }
+
+    /**
+     * Начинает строить новое поколение индекса сайта. Поиск до
+     * {@link #commit(long, int)} продолжает читать текущее.
+     */
+    public void begin(long siteId, int generation) {
+        building.put(siteId, new SiteIndex(siteId, generation));
+    }
+
+    /**
+     * Как {@link #begin(long, int)}, но строящееся поколение начинается
+     * со страниц, уже записанных в базу.
+     */
+    public void resume(long siteId, int generation) {
+        SiteIndex index = new SiteIndex(siteId, generation);
+        index.setSegment(loadSegment(index));
+        building.put(siteId, index);
+    }
+
+    public void addPage(long siteId, int generation, long pageId, Map<String, Float> lemmas) {
+        get(siteId, generation).add(pageId, lemmas);
+    }
+
+    public void removePage(long siteId, int generation, long pageId) {
+        get(siteId, generation).remove(pageId);
+    }
+
+    /**
+     * Сливает накопленные изменения в новый сегмент, сохраняет его
+     * на диск и дальше читает из отображённого файла. Если это строящееся
+     * поколение, поиск переключается на него.
+     */
+    public void commit(long siteId, int generation) {
+        SiteIndex index = get(siteId, generation);
+        index.compact();
+        save(index);
+
+        if (building.remove(siteId, index)) {
+            sites.put(siteId, index);
+        }
+    }
+
+    /**
+     * Отбрасывает строящееся поколение, не трогая текущее.
+     */
+    public void discard(long siteId, int generation) {
+        building.computeIfPresent(siteId, (id, index) -> index.getGeneration() == generation ? null : index);
+    }
+
+    /**
+     * Индекс, в который пишутся страницы поколения: строящийся или текущий.
+     * Изменения поколения, которого в индексе нет, пишутся в индекс, который
+     * нигде не запоминается: поиск их не видит, а в базе они уже есть.
+     */
+    private SiteIndex get(long siteId, int generation) {
+        SiteIndex next = building.get(siteId);
+
+        if (next != null && next.getGeneration() == generation) {
+            return next;
+        }
+
+        SiteIndex live = sites.computeIfAbsent(siteId, id -> new SiteIndex(id, generation));
+
+        return live.getGeneration() == generation ? live : new SiteIndex(siteId, generation);
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(Paths.get(indexPath));
+
+            List<long[]> liveSites = jdbcTemplate.query("select id, generation from site",
+                (rs, rowNum) -> new long[] { rs.getLong(1), rs.getInt(2) });
+
+            for (long[] site : liveSites) {
+                SiteIndex index = new SiteIndex(site[0], (int) site[1]);
+                Segment segment = openSegment(index);
+
+                if (segment != null) {
+                    index.setSegment(segment);
+                } else {
+                    index.setSegment(loadSegment(index));
+                    save(index);
+                }
+
+                // пока индекс загружался, индексатор мог переключить сайт на новое поколение
+                sites.merge(index.getSiteId(), index,
+                    (current, loaded) -> current.getGeneration() > loaded.getGeneration() ? current : loaded);
+            }
+
+            loaded = true;
+        } catch (Exception e) {
+            failed = true;
+            log.error("Не удалось загрузить поисковый индекс, поиск будет идти по базе", e);
+        } finally {
+            ready.countDown();
+        }
+    }
+
+    private void save(SiteIndex index) {
+        Segment segment = index.getSegment();
+        Path path = segmentPath(index.getSiteId());
+        long[] stamp = getStamp(index);
+
+        try {
+            segment.writeTo(path, stamp[0], stamp[1]);
+            index.replaceSegment(segment, Segment.open(path));
+        } catch (IOException e) {
+            log.error("Не удалось сохранить индекс сайта {} в {}", index.getSiteId(), path, e);
+        }
+    }
+
+    private Segment openSegment(SiteIndex index) {
+        Path path = segmentPath(index.getSiteId());
+
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            Segment segment = Segment.open(path);
+            long[] stamp = getStamp(index);
+
+            if (segment.getStampCount() == stamp[0] && segment.getStampMaxId() == stamp[1]) {
+                return segment;
+            }
+        } catch (Exception ignored) {
+        }
+
+        return null;
+    }
+
+    /**
+     * Число страниц сайта и наибольший их id - по ним видно, менялись ли
+     * страницы поколения после сохранения сегмента.
+     */
+    private long[] getStamp(SiteIndex index) {
+        return jdbcTemplate.queryForObject(
+            "select count(*), coalesce(max(id), 0) from page where site_id = ? and generation = ?",
+            (rs, rowNum) -> new long[] { rs.getLong(1), rs.getLong(2) },
+            index.getSiteId(), index.getGeneration()
+        );
+    }
+
+    private Path segmentPath(long siteId) {
+        return Paths.get(indexPath, "site-" + siteId + ".seg");
+    }
+
+    private Segment loadSegment(SiteIndex index) {
+        Map<String, PostingListBuilder> builders = new HashMap<>();
+        Map<Long, Float> norms = new HashMap<>();
+
+        jdbcTemplate.query(
+            "select l.lemma, i.page_id, i.`rank` " +
+            "  from lemma l " +
+            "  join `index` i " +
+            "    on i.lemma_id = l.id " +
+            " where l.site_id = ?" +
+            "   and l.generation = ?",
+            rs -> {
+                builders.computeIfAbsent(rs.getString(1), l -> new PostingListBuilder())
+                    .add(rs.getLong(2), rs.getFloat(3));
+                norms.merge(rs.getLong(2), rs.getFloat(3), Float::sum);
+            },
+            index.getSiteId(), index.getGeneration()
+        );
+
+        Map<String, PostingList> postings = new HashMap<>();
+        builders.forEach((lemma, builder) -> postings.put(lemma, builder.build()));
+
+        return Segment.build(postings, norms);
+    }
+}
@@ -0,0 +1,160 @@
+package searchengine.search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Неизменяемый список страниц, на которых встречается лемма.
+ * Идентификаторы страниц отсортированы и хранятся разностями
+ * в формате varint, за ними следуют ранги. Перед идентификаторами
+ * лежат указатели пропуска: для каждого блока из {@link #SKIP_INTERVAL}
+ * записей - id последней страницы перед блоком и смещение блока, чтобы
+ * {@link Cursor#advance(long)} не декодировал список целиком.
+ * Данные читаются прямо из буфера - в куче или отображённого из файла.
+ */
+public class PostingList {
+    static final int SKIP_INTERVAL = 64;
+    static final int SKIP_ENTRY = 8 + 4;
+
+    private final ByteBuffer buffer;
+    private final int skipsOffset;
+    private final int idsOffset;
+    private final int ranksOffset;
+    private final int size;
+    private final int skipCount;
+
+    PostingList(ByteBuffer buffer, int offset, int ranksOffset, int size) {
+        this.buffer = buffer;
+        this.skipsOffset = offset;
+        this.skipCount = skipCount(size);
+        this.idsOffset = offset + skipCount * SKIP_ENTRY;
+        this.ranksOffset = ranksOffset;
+        this.size = size;
+    }
+
+    static int skipCount(int size) {
+        return size == 0 ? 0 : (size - 1) / SKIP_INTERVAL;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Длина в байтах вместе с указателями пропуска и рангами.
+     */
+    int length() {
+        return ranksOffset - skipsOffset + size * Float.BYTES;
+    }
+
+    /**
+     * Смещение рангов от начала списка.
+     */
+    int ranksStart() {
+        return ranksOffset - skipsOffset;
+    }
+
+    void copyTo(ByteBuffer target) {
+        ByteBuffer source = buffer.duplicate();
+        source.limit(skipsOffset + length()).position(skipsOffset);
+        target.put(source);
+    }
+
+    public class Cursor {
+        private int index = -1;
+        private int position = idsOffset;
+        private long pageId;
+
+        public boolean next() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+
+            index++;
+
+            long delta = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            pageId += delta;
+
+            return true;
+        }
+
+        /**
+         * Переходит к первой странице с id не меньше {@code target}.
+         * Нужный блок ищется галопом по указателям пропуска, внутри
+         * блока - последовательно.
+         */
+        public boolean advance(long target) {
+            if (index >= size) {
+                return false;
+            }
+
+            if (index >= 0 && pageId >= target) {
+                return true;
+            }
+
+            int block = (index + 1) / SKIP_INTERVAL;
+
+            if (block < skipCount && skipBase(block + 1) < target) {
+                int low = block + 1;
+                int step = 1;
+
+                while (low + step <= skipCount && skipBase(low + step) < target) {
+                    low += step;
+                    step <<= 1;
+                }
+
+                int high = Math.min(low + step, skipCount + 1) - 1;
+
+                while (low < high) {
+                    int middle = (low + high + 1) >>> 1;
+
+                    if (skipBase(middle) < target) {
+                        low = middle;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+
+                index = low * SKIP_INTERVAL - 1;
+                pageId = skipBase(low);
+                position = idsOffset + buffer.getInt(skipsOffset + (low - 1) * SKIP_ENTRY + 8);
+            }
+
+            while (next()) {
+                if (pageId >= target) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public long pageId() {
+            return pageId;
+        }
+
+        public float rank() {
+            return buffer.getFloat(ranksOffset + index * Float.BYTES);
+        }
+
+        /**
+         * Id последней страницы перед блоком {@code block} (блоки с 1).
+         */
+        private long skipBase(int block) {
+            return buffer.getLong(skipsOffset + (block - 1) * SKIP_ENTRY);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package searchengine.search;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+public class PostingListBuilder {
+    private long[] pageIds = new long[4];
+    private float[] ranks = new float[4];
+    private int size;
+    private boolean sorted = true;
+
+    public void add(long pageId, float rank) {
+        if (size == pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, size * 2);
+            ranks = Arrays.copyOf(ranks, size * 2);
+        }
+
+        if (size > 0 && pageId <= pageIds[size - 1]) {
+            sorted = false;
+        }
+
+        pageIds[size] = pageId;
+        ranks[size] = rank;
+        size++;
+    }
+
+    public void addAll(PostingList postings, Set<Long> excluded) {
+        PostingList.Cursor cursor = postings.cursor();
+
+        while (cursor.next()) {
+            if (!excluded.contains(cursor.pageId())) {
+                add(cursor.pageId(), cursor.rank());
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Сортирует записи по странице; если страница добавлена несколько раз,
+     * остаётся последняя запись.
+     */
+    public PostingList build() {
+        if (!sorted) {
+            sort();
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(size * 2);
+        long[] ids = new long[size];
+        float[] packedRanks = new float[size];
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (i + 1 < size && pageIds[i + 1] == pageIds[i]) {
+                continue;
+            }
+
+            ids[count] = pageIds[i];
+            packedRanks[count] = ranks[i];
+            count++;
+        }
+
+        int skipCount = PostingList.skipCount(count);
+        long[] skipBases = new long[skipCount];
+        int[] skipOffsets = new int[skipCount];
+        long previous = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && i % PostingList.SKIP_INTERVAL == 0) {
+                skipBases[i / PostingList.SKIP_INTERVAL - 1] = previous;
+                skipOffsets[i / PostingList.SKIP_INTERVAL - 1] = data.size();
+            }
+
+            long delta = ids[i] - previous;
+            previous = ids[i];
+
+            while ((delta & ~0x7FL) != 0) {
+                data.write((int) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+
+            data.write((int) delta);
+        }
+
+        int ranksOffset = skipCount * PostingList.SKIP_ENTRY + data.size();
+        ByteBuffer buffer = ByteBuffer.allocate(ranksOffset + count * Float.BYTES);
+
+        for (int i = 0; i < skipCount; i++) {
+            buffer.putLong(skipBases[i]);
+            buffer.putInt(skipOffsets[i]);
+        }
+
+        buffer.put(data.toByteArray());
+
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(packedRanks[i]);
+        }
+
+        return new PostingList(buffer, 0, ranksOffset, count);
+    }
+
+    private void sort() {
+        Integer[] order = new Integer[size];
+
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> Long.compare(pageIds[a], pageIds[b]));
+
+        long[] sortedIds = new long[size];
+        float[] sortedRanks = new float[size];
+
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = pageIds[order[i]];
+            sortedRanks[i] = ranks[order[i]];
+        }
+
+        pageIds = sortedIds;
+        ranks = sortedRanks;
+        sorted = true;
+    }
+}
@@ -0,0 +1,100 @@
+package searchengine.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Находит страницы, на которых встречаются все леммы запроса.
+ * Обход ведётся по самому короткому списку, остальные списки
+ * догоняют его через {@link PostingList.Cursor#advance(long)},
+ * а при расхождении ведущий список сам перескакивает вперёд.
+ */
+public class QueryEvaluator {
+
+    /**
+     * @param postings списки страниц в порядке лемм запроса
+     * @return все совпавшие страницы по возрастанию id и ранги каждой
+     * леммы на них в том же порядке, что и {@code postings}
+     */
+    public Matches evaluate(List<PostingList> postings) {
+        int terms = postings.size();
+        Integer[] order = new Integer[terms];
+
+        for (int i = 0; i < terms; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> Integer.compare(postings.get(a).size(), postings.get(b).size()));
+
+        PostingList.Cursor[] cursors = new PostingList.Cursor[terms];
+
+        for (int i = 0; i < terms; i++) {
+            cursors[i] = postings.get(order[i]).cursor();
+        }
+
+        Matches matches = new Matches(terms, terms == 0 ? 0 : postings.get(order[0]).size());
+        long target = Long.MIN_VALUE;
+
+        search:
+        while (terms > 0 && cursors[0].advance(target)) {
+            long pageId = cursors[0].pageId();
+
+            for (int i = 1; i < terms; i++) {
+                if (!cursors[i].advance(pageId)) {
+                    break search;
+                }
+
+                if (cursors[i].pageId() > pageId) {
+                    target = cursors[i].pageId();
+                    continue search;
+                }
+            }
+
+            int match = matches.add(pageId);
+
+            for (int i = 0; i < terms; i++) {
+                matches.ranks[match * terms + order[i]] = cursors[i].rank();
+            }
+
+            target = pageId + 1;
+        }
+
+        return matches;
+    }
+
+    public static class Matches {
+        private final int terms;
+        private long[] pageIds;
+        private float[] ranks;
+        private int size;
+
+        private Matches(int terms, int capacity) {
+            this.terms = terms;
+            this.pageIds = new long[Math.max(capacity, 1)];
+            this.ranks = new float[Math.max(capacity, 1) * terms];
+        }
+
+        private int add(long pageId) {
+            if (size == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+                ranks = Arrays.copyOf(ranks, size * 2 * terms);
+            }
+
+            pageIds[size] = pageId;
+
+            return size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long pageId(int match) {
+            return pageIds[match];
+        }
+
+        public float rank(int match, int term) {
+            return ranks[match * terms + term];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package searchengine.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import searchengine.dto.api.Response;
+import searchengine.dto.statistics.SearchCacheStatistics;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Кэш ответов на поисковые запросы. Ключ - отсортированные леммы и слова
+ * запроса (по словам подсвечивается сниппет), сайт и окно выдачи.
+ * Записи сайта сбрасываются, когда его индекс меняется.
+ */
+@Component
+public class SearchCache {
+    /** siteId запроса по всем сайтам. */
+    public static final long ALL_SITES = 0;
+
+    @Value("${search-bot.search-cache-size:10000}")
+    private long maximumSize;
+
+    @Value("${search-bot.search-cache-ttl:600}")
+    private long ttl;
+
+    private Cache<Key, Response> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(Duration.ofSeconds(ttl))
+            .recordStats()
+            .build();
+    }
+
+    public Response get(Key key, Supplier<Response> search) {
+        return cache.get(key, k -> search.get());
+    }
+
+    /**
+     * Сбрасывает ответы по сайту и по всем сайтам сразу.
+     */
+    public void invalidate(long siteId) {
+        cache.asMap().keySet().removeIf(k -> k.siteId() == siteId || k.siteId() == ALL_SITES);
+    }
+
+    public SearchCacheStatistics getStatistics() {
+        CacheStats stats = cache.stats();
+        SearchCacheStatistics statistics = new SearchCacheStatistics();
+        statistics.setSize(cache.estimatedSize());
+        statistics.setHits(stats.hitCount());
+        statistics.setMisses(stats.missCount());
+        statistics.setHitRate(stats.hitRate());
+
+        return statistics;
+    }
+
+    public record Key(List<String> lemmas, List<String> words, long siteId, int offset, int limit) {
+    }
+}
@@ -0,0 +1,305 @@
+package searchengine.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Неизменяемый сегмент индекса сайта: словарь лемм, списки страниц
+ * и длины страниц. Один и тот же формат используется в памяти и в файле:
+ * <pre>
+ * заголовок  magic, version, termCount, pageCount, maxPageId, totalNorm,
+ *            stampCount, stampMaxId, смещения таблицы, строк, норм
+ * таблица    termCount записей: смещение и длина строки, смещение списка,
+ *            число страниц, смещение рангов
+ * строки     леммы в UTF-8, таблица упорядочена по ним побайтно
+ * списки     для каждой леммы указатели пропуска, varint-разности
+ *            id страниц и ранги
+ * нормы      pageCount пар (id страницы, длина), упорядочены по id
+ * </pre>
+ * Отметки stampCount/stampMaxId записываются при сохранении и позволяют
+ * при запуске понять, не изменились ли страницы сайта с тех пор.
+ */
+public class Segment {
+    private static final int MAGIC = 0x53534547;
+    private static final int VERSION = 2;
+    private static final int HEADER = 4 + 4 + 4 + 4 + 8 + 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int TERM_ENTRY = 4 + 4 + 4 + 4 + 4;
+    private static final int NORM_ENTRY = 8 + 4;
+    private static final int STAMP_POSITION = 32;
+
+    public static final Segment EMPTY = build(Map.of(), Map.of());
+
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int pageCount;
+    private final long maxPageId;
+    private final double totalNorm;
+    private final long stampCount;
+    private final long stampMaxId;
+    private final int tableOffset;
+    private final int termsOffset;
+    private final int normsOffset;
+
+    private Segment(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported segment format");
+        }
+
+        this.buffer = buffer;
+        this.termCount = buffer.getInt(8);
+        this.pageCount = buffer.getInt(12);
+        this.maxPageId = buffer.getLong(16);
+        this.totalNorm = buffer.getDouble(24);
+        this.stampCount = buffer.getLong(STAMP_POSITION);
+        this.stampMaxId = buffer.getLong(STAMP_POSITION + 8);
+        this.tableOffset = buffer.getInt(48);
+        this.termsOffset = buffer.getInt(52);
+        this.normsOffset = buffer.getInt(56);
+    }
+
+    public static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Segment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Segment build(Map<String, PostingList> postings, Map<Long, Float> norms) {
+        List<byte[]> terms = new ArrayList<>();
+        Map<byte[], PostingList> lists = new IdentityHashMap<>();
+        int termsLength = 0;
+        int postingsLength = 0;
+
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            terms.add(term);
+            lists.put(term, entry.getValue());
+            termsLength += term.length;
+            postingsLength += entry.getValue().length();
+        }
+
+        terms.sort(Arrays::compareUnsigned);
+
+        long[] pageIds = norms.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        int tableOffset = HEADER;
+        int termsOffset = tableOffset + terms.size() * TERM_ENTRY;
+        int postingsOffset = termsOffset + termsLength;
+        int normsOffset = postingsOffset + postingsLength;
+        ByteBuffer buffer = ByteBuffer.allocate(normsOffset + pageIds.length * NORM_ENTRY);
+        double totalNorm = 0;
+
+        int termPosition = termsOffset;
+        int postingsPosition = postingsOffset;
+
+        for (int i = 0; i < terms.size(); i++) {
+            byte[] term = terms.get(i);
+            PostingList list = lists.get(term);
+
+            buffer.position(tableOffset + i * TERM_ENTRY);
+            buffer.putInt(termPosition - termsOffset);
+            buffer.putInt(term.length);
+            buffer.putInt(postingsPosition);
+            buffer.putInt(list.size());
+            buffer.putInt(postingsPosition + list.ranksStart());
+
+            buffer.position(termPosition);
+            buffer.put(term);
+            termPosition += term.length;
+
+            buffer.position(postingsPosition);
+            list.copyTo(buffer);
+            postingsPosition += list.length();
+        }
+
+        buffer.position(normsOffset);
+
+        for (long pageId : pageIds) {
+            float norm = norms.get(pageId);
+            buffer.putLong(pageId);
+            buffer.putFloat(norm);
+            totalNorm += norm;
+        }
+
+        buffer.position(0);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(terms.size());
+        buffer.putInt(pageIds.length);
+        buffer.putLong(pageIds.length == 0 ? 0 : pageIds[pageIds.length - 1]);
+        buffer.putDouble(totalNorm);
+        buffer.putLong(0);
+        buffer.putLong(0);
+        buffer.putInt(tableOffset);
+        buffer.putInt(termsOffset);
+        buffer.putInt(normsOffset);
+        buffer.clear();
+
+        return new Segment(buffer);
+    }
+
+    /**
+     * Записывает сегмент во временный файл и атомарно переименовывает его.
+     */
+    public void writeTo(Path path, long stampCount, long stampMaxId) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        ByteBuffer source = buffer.duplicate();
+
+        source.clear().limit(HEADER);
+        header.put(source);
+        header.putLong(STAMP_POSITION, stampCount);
+        header.putLong(STAMP_POSITION + 8, stampMaxId);
+        header.flip();
+
+        source = buffer.duplicate();
+        source.clear().position(HEADER);
+
+        try (FileChannel channel = FileChannel.open(tmp,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public PostingList get(String lemma) {
+        byte[] term = lemma.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = tableOffset + middle * TERM_ENTRY;
+            int cmp = compare(termsOffset + buffer.getInt(entry), buffer.getInt(entry + 4), term);
+
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return postingList(entry);
+            }
+        }
+
+        return null;
+    }
+
+    public void forEachTerm(BiConsumer<String, PostingList> consumer) {
+        for (int i = 0; i < termCount; i++) {
+            int entry = tableOffset + i * TERM_ENTRY;
+            byte[] term = new byte[buffer.getInt(entry + 4)];
+            buffer.get(termsOffset + buffer.getInt(entry), term);
+            consumer.accept(new String(term, StandardCharsets.UTF_8), postingList(entry));
+        }
+    }
+
+    public void forEachNorm(BiConsumer<Long, Float> consumer) {
+        for (int i = 0; i < pageCount; i++) {
+            int entry = normsOffset + i * NORM_ENTRY;
+            consumer.accept(buffer.getLong(entry), buffer.getFloat(entry + 8));
+        }
+    }
+
+    /**
+     * Длина страницы - сумма рангов всех её лемм; 0, если страницы нет.
+     */
+    public float norm(long pageId) {
+        int i = indexOf(pageId);
+
+        return i < 0 ? 0f : buffer.getFloat(normsOffset + i * NORM_ENTRY + 8);
+    }
+
+    public boolean contains(long pageId) {
+        return indexOf(pageId) >= 0;
+    }
+
+    private int indexOf(long pageId) {
+        int low = 0;
+        int high = pageCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long id = buffer.getLong(normsOffset + middle * NORM_ENTRY);
+
+            if (id < pageId) {
+                low = middle + 1;
+            } else if (id > pageId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Суммарная длина списков страниц всех лемм.
+     */
+    public long getPostingCount() {
+        long count = 0;
+
+        for (int i = 0; i < termCount; i++) {
+            count += buffer.getInt(tableOffset + i * TERM_ENTRY + 12);
+        }
+
+        return count;
+    }
+
+    public long getMaxPageId() {
+        return maxPageId;
+    }
+
+    public double getTotalNorm() {
+        return totalNorm;
+    }
+
+    public long getStampCount() {
+        return stampCount;
+    }
+
+    public long getStampMaxId() {
+        return stampMaxId;
+    }
+
+    private PostingList postingList(int entry) {
+        return new PostingList(buffer, buffer.getInt(entry + 8), buffer.getInt(entry + 16), buffer.getInt(entry + 12));
+    }
+
+    private int compare(int offset, int length, byte[] term) {
+        int n = Math.min(length, term.length);
+
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(offset + i), term[i]);
+
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return Integer.compare(length, term.length);
+    }
+}
@@ -0,0 +1,232 @@
+package searchengine.search;
+
+import java.util.*;
+
+/**
+ * Инвертированный индекс одного сайта. Основная часть - неизменяемый
+ * {@link Segment}, который читается без блокировок; страницы, добавленные
+ * или удалённые индексатором после его построения, накапливаются отдельно
+ * и учитываются при чтении, пока {@link #compact()} не сольёт их в новый
+ * сегмент. Списки страниц, собранные с учётом изменений, кешируются
+ * до следующего изменения. Сегмент пересобирается, когда изменений
+ * накопилось не меньше, чем в нём записей, так что за всё построение
+ * индекса каждая запись переписывается лишь несколько раз.
+ */
+public class SiteIndex {
+    private static final int MAX_PENDING = 100_000;
+
+    private final long siteId;
+    private final int generation;
+    private volatile Segment segment = Segment.EMPTY;
+    private volatile boolean dirty;
+    private final Map<String, PostingListBuilder> added = new HashMap<>();
+    private final Map<Long, Float> addedNorms = new HashMap<>();
+    private final Set<Long> removed = new HashSet<>();
+    private final Map<String, PostingList> mergedLists = new HashMap<>();
+    private double addedTotalNorm;
+    /**
+     * Число и суммарная длина удалённых страниц, которые есть в сегменте.
+     */
+    private int removedCount;
+    private double removedTotalNorm;
+    private long pending;
+    private long compactAt = MAX_PENDING;
+
+    public SiteIndex(long siteId, int generation) {
+        this.siteId = siteId;
+        this.generation = generation;
+    }
+
+    public long getSiteId() {
+        return siteId;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public PostingList get(String lemma) {
+        if (!dirty) {
+            return segment.get(lemma);
+        }
+
+        synchronized (this) {
+            if (mergedLists.containsKey(lemma)) {
+                return mergedLists.get(lemma);
+            }
+
+            PostingList list = merge(lemma);
+            mergedLists.put(lemma, list);
+
+            return list;
+        }
+    }
+
+    public float norm(long pageId) {
+        if (!dirty) {
+            return segment.norm(pageId);
+        }
+
+        synchronized (this) {
+            if (removed.contains(pageId)) {
+                return 0f;
+            }
+
+            return addedNorms.getOrDefault(pageId, segment.norm(pageId));
+        }
+    }
+
+    public synchronized int getPageCount() {
+        return segment.getPageCount() - removedCount + addedNorms.size();
+    }
+
+    public synchronized double getTotalNorm() {
+        return segment.getTotalNorm() - removedTotalNorm + addedTotalNorm;
+    }
+
+    public Segment getSegment() {
+        return segment;
+    }
+
+    public synchronized void add(long pageId, Map<String, Float> lemmas) {
+        float norm = 0f;
+
+        for (Map.Entry<String, Float> entry : lemmas.entrySet()) {
+            added.computeIfAbsent(entry.getKey(), l -> new PostingListBuilder()).add(pageId, entry.getValue());
+            mergedLists.remove(entry.getKey());
+            norm += entry.getValue();
+        }
+
+        addedNorms.put(pageId, norm);
+        addedTotalNorm += norm;
+        pending += lemmas.size();
+        dirty = true;
+
+        if (pending >= compactAt) {
+            compact();
+        }
+    }
+
+    public synchronized void remove(long pageId) {
+        if (!removed.add(pageId)) {
+            return;
+        }
+
+        Float norm = addedNorms.remove(pageId);
+
+        if (norm != null) {
+            addedTotalNorm -= norm;
+        }
+
+        if (segment.contains(pageId)) {
+            removedCount++;
+            removedTotalNorm += segment.norm(pageId);
+        }
+
+        mergedLists.clear();
+        pending++;
+        dirty = true;
+    }
+
+    /**
+     * Заменяет основную часть индекса, например прочитанной из файла или
+     * построенной по базе. Накопленные изменения применяются поверх неё.
+     */
+    public synchronized void setSegment(Segment segment) {
+        this.segment = segment;
+        compactAt = Math.max(MAX_PENDING, segment.getPostingCount());
+        recountRemoved();
+        mergedLists.clear();
+    }
+
+    /**
+     * Подменяет сегмент равнозначным (например, тем же сегментом,
+     * отображённым из файла), если он не успел смениться.
+     */
+    public synchronized void replaceSegment(Segment expected, Segment segment) {
+        if (this.segment == expected) {
+            this.segment = segment;
+            mergedLists.clear();
+        }
+    }
+
+    public synchronized void compact() {
+        if (!dirty) {
+            return;
+        }
+
+        Map<String, PostingList> postings = new HashMap<>();
+
+        segment.forEachTerm((lemma, list) -> {
+            PostingList merged = merge(lemma);
+
+            if (merged != null) {
+                postings.put(lemma, merged);
+            }
+        });
+
+        for (String lemma : added.keySet()) {
+            if (!postings.containsKey(lemma)) {
+                PostingList merged = merge(lemma);
+
+                if (merged != null) {
+                    postings.put(lemma, merged);
+                }
+            }
+        }
+
+        Map<Long, Float> norms = new HashMap<>();
+
+        segment.forEachNorm((pageId, norm) -> {
+            if (!removed.contains(pageId)) {
+                norms.put(pageId, norm);
+            }
+        });
+        norms.putAll(addedNorms);
+
+        segment = Segment.build(postings, norms);
+        compactAt = Math.max(MAX_PENDING, segment.getPostingCount());
+        added.clear();
+        addedNorms.clear();
+        removed.clear();
+        mergedLists.clear();
+        addedTotalNorm = 0;
+        removedCount = 0;
+        removedTotalNorm = 0;
+        pending = 0;
+        dirty = false;
+    }
+
+    private void recountRemoved() {
+        removedCount = 0;
+        removedTotalNorm = 0;
+
+        for (long pageId : removed) {
+            if (segment.contains(pageId)) {
+                removedCount++;
+                removedTotalNorm += segment.norm(pageId);
+            }
+        }
+    }
+
+    private PostingList merge(String lemma) {
+        PostingList base = segment.get(lemma);
+        PostingListBuilder delta = added.get(lemma);
+
+        if (delta == null && removed.isEmpty()) {
+            return base;
+        }
+
+        PostingListBuilder builder = new PostingListBuilder();
+
+        if (base != null) {
+            builder.addAll(base, removed);
+        }
+
+        if (delta != null) {
+            builder.addAll(delta.build(), removed);
+        }
+
+        return builder.size() == 0 ? null : builder.build();
+    }
+}
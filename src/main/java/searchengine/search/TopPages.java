@@ -0,0 +1,113 @@
+package searchengine.search;
+
+/**
+ * Хранит не больше {@code capacity} страниц с наибольшей оценкой
+ * в двоичной куче на примитивных массивах.
+ */
+public class TopPages {
+    private final int capacity;
+    private final long[] pageIds;
+    private final float[] scores;
+    private int size;
+    private boolean sorted;
+
+    public TopPages(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.pageIds = new long[this.capacity];
+        this.scores = new float[this.capacity];
+    }
+
+    public void offer(long pageId, float score) {
+        if (capacity == 0) {
+            return;
+        }
+
+        if (size < capacity) {
+            pageIds[size] = pageId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (better(pageId, score, 0)) {
+            pageIds[0] = pageId;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Упорядочивает собранные страницы по убыванию оценки.
+     * После этого новые страницы добавлять нельзя.
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+
+        sorted = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long pageId(int i) {
+        return pageIds[i];
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+
+    private boolean better(long pageId, float score, int i) {
+        return score > scores[i] || (score == scores[i] && pageId < pageIds[i]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+
+            if (!better(pageIds[parent], scores[parent], i)) {
+                break;
+            }
+
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+
+            if (left < end && better(pageIds[smallest], scores[smallest], left)) {
+                smallest = left;
+            }
+
+            if (right < end && better(pageIds[smallest], scores[smallest], right)) {
+                smallest = right;
+            }
+
+            if (smallest == i) {
+                return;
+            }
+
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long pageId = pageIds[i];
+        float score = scores[i];
+        pageIds[i] = pageIds[j];
+        scores[i] = scores[j];
+        pageIds[j] = pageId;
+        scores[j] = score;
+    }
+}
@@ -1,31 +1,45 @@
 package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import searchengine.LemmaFinder;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
-import searchengine.models.Index;
-import searchengine.models.Lemma;
-import searchengine.models.Page;
+import searchengine.crawler.CrawlCheckpoint;
+import searchengine.crawler.CrawlFrontier;
+import searchengine.crawler.CrawlScheduler;
+import searchengine.crawler.KnownPage;
+import searchengine.crawler.PageFetcher;
+import searchengine.crawler.PolitenessPolicy;
+import searchengine.crawler.RobotsRules;
+import searchengine.crawler.SiteCrawl;
+import searchengine.crawler.SiteDiscovery;
+import searchengine.crawler.VisitedSet;
+import searchengine.indexing.IndexWriter;
+import searchengine.indexing.IndexingPipeline;
+import searchengine.indexing.PageTask;
 import searchengine.models.SiteStatus;
 import searchengine.repositories.IndexRepository;
 import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.PageContentRepository;
 import searchengine.repositories.PageRepository;
 import searchengine.repositories.SiteRepository;
+import searchengine.search.InvertedIndex;
+import searchengine.search.SearchCache;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
@@ -38,44 +52,68 @@ public class IndexationService {
     @Autowired
     private final PageRepository pageRepository;
 
+    @Autowired
+    private final PageContentRepository pageContentRepository;
+
     @Autowired
     private final LemmaRepository lemmaRepository;
 
     @Autowired
     private final IndexRepository indexRepository;
 
-    private final Object lock = new Object();
+    @Autowired
+    private final IndexWriter indexWriter;
 
-    private final Set<String> excludedProtocols = Collections.synchronizedSet(new HashSet<>(
-        Arrays.asList("tel", "mailto", "file")
-    ));
+    @Autowired
+    private final IndexingPipeline indexingPipeline;
 
-    private final Set<String> excludedExtensions = Collections.synchronizedSet(new HashSet<>(
-        Arrays.asList(
-            "pdf", "txt", "djv", "djvu", "chm",
-            "doc", "docx", "csv", "xls", "xlsx",
-            "zip", "nc", "jpg", "ppt", "fig",
-            "m", "png", "tiff", "bmp", "jpeg",
-            "rar", "7z"
-        )
-    ));
+    @Autowired
+    private final PageFetcher pageFetcher;
 
-    private volatile boolean indexingStarted;
-    private String lastError;
+    @Autowired
+    private final SiteDiscovery siteDiscovery;
+
+    @Autowired
+    private final CrawlScheduler crawlScheduler;
 
-    @Value("${search-bot.user-agent}")
-    private String userAgent;
+    @Autowired
+    private final SearchCache searchCache;
+
+    @Autowired
+    private final InvertedIndex invertedIndex;
 
-    @Value("${search-bot.referrer}")
-    private String referrer;
+    private volatile boolean indexingStarted;
+    private String lastError;
 
     @Value("${search-bot.timeout}")
     private int timeout;
 
-    HashMap<String, Integer> indexingResults = new HashMap<>();
+    @Value("${search-bot.frontier-capacity:100000}")
+    private int frontierCapacity;
+
+    @Value("${search-bot.incremental:false}")
+    private boolean incremental;
+
+    @Value("${search-bot.resume:true}")
+    private boolean resume;
 
-    private final LemmaFinder lemmaFinder = new LemmaFinder();
+    @Value("${search-bot.checkpoint-path:checkpoints}")
+    private String checkpointPath;
 
+    @Value("${search-bot.checkpoint-interval:10000}")
+    private long checkpointInterval;
+
+    private final Map<String, Integer> indexingResults = new ConcurrentHashMap<>();
+    /**
+     * Обходы сайтов, которые ещё не закончены, включая остановленные:
+     * future завершается, когда обход дописал и убрал за собой данные.
+     */
+    private final Map<String, CompletableFuture<Void>> activeCrawls = new ConcurrentHashMap<>();
+
+    /**
+     * Запускает индексацию всех сайтов. Подготовка и обход идут в пуле
+     * {@link CrawlScheduler}, вызывающий поток не ждёт их.
+     */
     public void scan() {
         indexingStarted = true;
 
@@ -84,58 +122,219 @@ public class IndexationService {
         }
 
         for (Site site : sites.getSites()) {
-            checkSite(site);
+            crawlScheduler.execute(() -> checkSite(site));
         }
     }
 
-    public void rescanPage(String url) {
+    /**
+     * После запуска продолжает обход сайтов, индексация которых была
+     * прервана остановкой приложения (статус INDEXING). Ждёт окончания
+     * загрузки поискового индекса, чтобы дописывать в него; если загрузить
+     * его не удалось, обход всё равно продолжается - поиск идёт по базе.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        if (!resume) {
+            return;
+        }
+
+        crawlScheduler.execute(() -> {
+            try {
+                invertedIndex.awaitLoaded();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            List<Site> interrupted = sites.getSites().stream()
+                .filter(site -> {
+                    searchengine.models.Site siteModel = siteRepository.findByUrl(normalizeHost(site.getUrl()));
+                    return siteModel != null && siteModel.getStatus() == SiteStatus.INDEXING;
+                })
+                .toList();
+
+            if (interrupted.isEmpty() || isIndexingStarted()) {
+                return;
+            }
+
+            indexingStarted = true;
+
+            for (Site site : interrupted) {
+                indexingResults.put(normalizeHost(site.getUrl()), -1);
+            }
+
+            for (Site site : interrupted) {
+                crawlScheduler.execute(() -> checkSite(site));
+            }
+        });
+    }
+
+    /**
+     * Заново индексирует одну страницу. Возвращает false, если её не удалось
+     * получить как HTML.
+     */
+    public boolean rescanPage(String url) {
         try {
             URL curl = new URL(url);
             String host = normalizeHost(curl.getProtocol() + "://" + curl.getHost());
             searchengine.models.Site siteModel = siteRepository.findByUrl(host);
 
-            Document doc = Jsoup.connect(curl.toString())
-                .userAgent(userAgent)
-                .referrer(referrer)
-                .get();
+            PageTask task = fetch(null, siteModel, curl).get();
+            Long pageId = pageRepository.findIdBySiteIdAndGenerationAndPath(
+                siteModel.getId(), siteModel.getGeneration(), curl.getPath());
 
-            savePage(curl, doc.outerHtml(), doc.connection().response().statusCode(), siteModel);
+            if (pageId != null) {
+                indexWriter.removePage(siteModel.getId(), siteModel.getGeneration(), pageId);
+            }
+
+            indexingPipeline.process(task);
+            indexWriter.flush();
+            searchCache.invalidate(siteModel.getId());
+
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception ignored) {
         }
+
+        return false;
     }
 
     public void setIndexingStarted(boolean indexingStarted) {
         this.indexingStarted = indexingStarted;
+
+        if (!indexingStarted) {
+            crawlScheduler.stopAll();
+        }
     }
 
+    /**
+     * Индексация считается запущенной, пока не закончены все обходы, в том
+     * числе остановленные, но ещё не дописавшие принятые страницы.
+     */
     public boolean isIndexingStarted() {
-        return indexingStarted;
+        return indexingStarted || !activeCrawls.isEmpty();
     }
 
     public String getLastError() {
         return lastError;
     }
 
+    /**
+     * Переиндексирует сайт в следующее поколение. Пока оно строится, поиск
+     * работает по текущему; по окончании обхода поиск переключается на новое
+     * поколение, а старое удаляется в фоне. Поколение, собранное обходом,
+     * прерванным остановкой индексации, отбрасывается, если у сайта есть
+     * прежние страницы.
+     * С search-bot.incremental уже проиндексированный сайт обновляется
+     * на месте: страницы запрашиваются условно, заново индексируются только
+     * изменившиеся, а исчезнувшие удаляются.
+     * Обход соблюдает robots.txt: запрещённые адреса не запрашиваются,
+     * Crawl-delay увеличивает паузу между запросами. Кроме корня, очередь
+     * сразу наполняется адресами из sitemap.
+     * Ход обхода записывается в журнал {@link CrawlCheckpoint}; если
+     * с search-bot.resume журнал прерванного обхода найден, обход
+     * продолжается с тех адресов, которые ещё не были обработаны.
+     * Новый обход сайта начинается только после того, как предыдущий
+     * закончен: иначе оба писали бы в одно поколение.
+     */
     private void checkSite(Site site) {
         String host = normalizeHost(site.getUrl());
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        CompletableFuture<Void> running = activeCrawls.put(host, finished);
 
         try {
+            if (running != null) {
+                running.join();
+            }
+
             searchengine.models.Site siteModel = saveSite(site, host);
-            lemmaRepository.deleteBySiteId(siteModel.getId());
+            int previous = siteModel.getGeneration();
+            CrawlCheckpoint checkpoint = new CrawlCheckpoint(
+                Paths.get(checkpointPath, "site-" + siteModel.getId() + ".crawl"), checkpointInterval);
+            CrawlCheckpoint.Saved saved = resume ? checkpoint.read() : null;
+
+            if (saved != null && saved.generation() != previous && saved.generation() != previous + 1) {
+                saved = null;
+            }
 
-            List<Long> pageIds = siteModel.getPages().stream().map(Page::getId).toList();
+            Map<String, KnownPage> known = new ConcurrentHashMap<>();
 
-            if (pageIds.size() > 0) {
-                indexRepository.deleteByPageIdIn(pageIds);
+            if (saved != null ? saved.generation() == previous : incremental) {
+                for (KnownPage page : pageRepository.findKnownPages(siteModel.getId(), previous)) {
+                    known.put(page.path(), page);
+                }
             }
 
-            pageRepository.deleteBySiteId(siteModel.getId());
+            int generation = saved != null ? saved.generation() : known.isEmpty() ? previous + 1 : previous;
+            VisitedSet visited = new VisitedSet();
+
+            if (saved == null) {
+                checkpoint.reset(generation);
+
+                if (generation != previous) {
+                    deleteGeneration(siteModel.getId(), generation);
+                    indexWriter.begin(siteModel.getId(), generation);
+                }
+            } else {
+                visited.addAll(saved.done());
+                saved.done().forEach(known::remove);
+
+                if (generation != previous) {
+                    indexWriter.resume(siteModel.getId(), generation);
+
+                    // страницы без отметки об обработке могли не успеть записать
+                    // в журнал свои ссылки - они удаляются и скачиваются заново
+                    for (KnownPage page : pageRepository.findKnownPages(siteModel.getId(), generation)) {
+                        if (!saved.done().contains(page.path())) {
+                            indexWriter.removePage(siteModel.getId(), generation, page.id());
+                        }
+                    }
+
+                    indexWriter.flush();
+                }
+            }
 
             URL url = new URL(host);
+            RobotsRules robots = siteDiscovery.loadRobots(url);
+            PolitenessPolicy politeness = new PolitenessPolicy(Math.max(timeout, robots.getCrawlDelay()));
+            CrawlFrontier frontier = new CrawlFrontier(frontierCapacity, visited);
+            SiteCrawl crawl = new SiteCrawl(siteModel, generation, frontier, politeness, site.getPriority(), known,
+                robots, checkpoint);
+
+            crawl.offer(url);
+
+            if (saved != null) {
+                for (String path : saved.queued()) {
+                    if (!saved.done().contains(path)) {
+                        crawl.offer(new URL(host + path));
+                    }
+                }
+            }
+
+            frontier.hold();
+            indexingPipeline.register(crawl);
+            crawlScheduler.execute(() -> seed(crawl, url));
 
-            CompletableFuture
-                .runAsync(() -> scanPages(siteModel, url), ForkJoinPool.commonPool())
+            crawlScheduler.submit(crawl, this::visit)
+                .whenComplete((r, e) -> indexingPipeline.unregister(crawl))
                 .thenAccept(s -> {
+                    checkpoint.delete();
+
+                    if (crawl.isIncremental()) {
+                        finishIncremental(crawl);
+                        return;
+                    }
+
+                    boolean discard = crawl.isStopped() &&
+                        pageRepository.countBySiteIdAndGeneration(siteModel.getId(), previous) > 0;
+                    int obsolete = discard ? generation : previous;
+
+                    if (!discard) {
+                        indexWriter.commit(siteModel.getId(), generation);
+                        siteModel.setGeneration(generation);
+                    }
+
+                    searchCache.invalidate(siteModel.getId());
                     siteModel.setStatus(SiteStatus.INDEXED);
                     siteModel.setStatusTime(new Date());
                     siteRepository.save(siteModel);
@@ -145,133 +344,158 @@ public class IndexationService {
                     if (!indexingResults.containsValue(-1)) {
                         indexingStarted = false;
                     }
-                });
+
+                    indexWriter.drop(siteModel.getId(), obsolete);
+                    deleteGeneration(siteModel.getId(), obsolete);
+                })
+                .whenComplete((r, e) -> finish(host, finished));
         } catch (Exception ignored) {
+            finish(host, finished);
         }
     }
 
-    private void scanPages(searchengine.models.Site siteModel, URL rootURL) {
-        try {
-            Document doc = Jsoup.connect(rootURL.toString())
-                .userAgent(userAgent)
-                .referrer(referrer)
-                .get();
-
-            savePage(rootURL, doc.outerHtml(), doc.connection().response().statusCode(), siteModel);
-
-            Elements links = doc.select("a[href]");
-
-            for (Element link : links) {
-                if (!indexingStarted) {
-                    return;
-                }
-
-                Thread.sleep(timeout);
-                URL url = getURL(link.attr("abs:href"), siteModel);
+    private void finish(String host, CompletableFuture<Void> finished) {
+        activeCrawls.remove(host, finished);
+        finished.complete(null);
+    }
 
-                if (url != null) {
-                    scanPages(siteModel, url);
-                }
-            }
+    /**
+     * Ставит в очередь обхода страницы из sitemap сайта и снимает
+     * удержание очереди, поставленное до запуска обхода.
+     */
+    private void seed(SiteCrawl crawl, URL root) {
+        try {
+            siteDiscovery.loadSitemaps(root, crawl.getRobots(), entry -> {
+                crawl.offer(entry);
+                return !crawl.isStopped();
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception ignored) {
+        } finally {
+            crawl.getFrontier().done();
         }
     }
 
-    @Transactional
-    private void savePage(URL url, String content, int statusCode, searchengine.models.Site siteModel) {
-        synchronized (lock) {
-            Page pageModel = new Page();
-            pageModel.setSite(siteModel);
-            pageModel.setSiteId(siteModel.getId());
-            pageModel.setPath(url.getPath());
-            pageModel.setContent(content);
-            pageModel.setCode(statusCode);
-
-            pageRepository.save(pageModel);
-            lemmatize(content, pageModel.getId(), siteModel.getId());
+    /**
+     * Завершает обновление сайта на месте: удаляет страницы, которые
+     * не удалось получить при обходе, и сохраняет индекс.
+     */
+    private void finishIncremental(SiteCrawl crawl) {
+        searchengine.models.Site siteModel = crawl.getSite();
 
-            System.err.println(url);
+        if (!crawl.isStopped()) {
+            for (KnownPage page : crawl.getKnown().values()) {
+                indexWriter.removePage(siteModel.getId(), crawl.getGeneration(), page.id());
+            }
         }
-    }
 
-    @Transactional
-    private void lemmatize(String content, long pageId, long siteId) {
-        synchronized (lock) {
-            HashMap<String, Integer> lemmas = lemmaFinder.textToLemmas(content);
-
-            for (Map.Entry<String, Integer> entry : lemmas.entrySet()) {
-                String l = entry.getKey();
-                Integer f = entry.getValue();
-                Lemma lemma = lemmaRepository.findByLemma(l);
-
-                if (lemma == null) {
-                    lemma = new Lemma();
-                    lemma.setFrequency(1);
-                    lemma.setLemma(l);
-                    lemma.setSiteId(siteId);
-                } else {
-                    lemma.setFrequency(lemma.getFrequency() + 1);
-                }
+        indexWriter.commit(siteModel.getId(), crawl.getGeneration());
+        searchCache.invalidate(siteModel.getId());
+        siteModel.setStatus(SiteStatus.INDEXED);
+        siteModel.setStatusTime(new Date());
+        siteRepository.save(siteModel);
+        indexingResults.put(siteModel.getUrl(), 0);
+        lastError = "";
 
-                lemmaRepository.save(lemma);
-                saveIndex(pageId, lemma.getId(), f);
-            }
+        if (!indexingResults.containsValue(-1)) {
+            indexingStarted = false;
         }
     }
 
-    @Transactional
-    private void saveIndex(long pageId, long lemmaId, int frequency) {
-        synchronized (lock) {
-            Index index = indexRepository.findByPageIdAndLemmaId(pageId, lemmaId);
-
-            if (index == null) {
-                index = new Index();
-                index.setPageId(pageId);
-                index.setLemmaId(lemmaId);
-            }
-
-            index.setRank(frequency);
-            indexRepository.save(index);
+    /**
+     * Обрабатывает адрес, выданный планировщиком. Возвращённая future
+     * завершается, когда запрос к серверу закончен и страница передана
+     * на разбор.
+     */
+    private CompletableFuture<?> visit(SiteCrawl crawl, URL url) {
+        if (crawl.getCheckpoint().isDue()) {
+            crawlScheduler.execute(() -> crawl.getCheckpoint().save(indexWriter::flush));
         }
-    }
 
-    private URL getURL(String href, searchengine.models.Site siteModel) {
-        synchronized (lock) {
-            if (href.contains("#") || href.contains("?")) {
-                return null;
+        try {
+            if (crawl.isListedUnchanged(url.getPath())) {
+                indexingPipeline.submit(notModified(crawl, url));
+                return CompletableFuture.completedFuture(null);
             }
 
-            URL url;
+            crawl.getPoliteness().await(url.getHost());
 
-            try {
-                url = new URL(normalizeHost(href));
-            } catch (MalformedURLException ignored) {
-                return null;
-            }
+            return fetch(crawl, crawl.getSite(), url).whenComplete((task, e) -> {
+                if (e != null) {
+                    crawl.done(url);
+                    return;
+                }
 
-            if (!siteModel.getUrl().contains(url.getHost()) ||
-                excludedProtocols.contains(url.getProtocol()) ||
-                excludedExtensions.contains(getFileExtension(url.getFile()))) {
-                return null;
-            }
+                try {
+                    indexingPipeline.submit(task);
+                } catch (InterruptedException ie) {
+                    crawl.getFrontier().done();
+                    Thread.currentThread().interrupt();
+                }
+            });
+        } catch (InterruptedException e) {
+            crawl.getFrontier().done();
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            crawl.done(url);
+        }
 
-            Page pageModel = pageRepository.findDistinctBySiteIdAndPath(siteModel.getId(), url.getPath());
+        return CompletableFuture.completedFuture(null);
+    }
 
-            if (pageModel != null) {
-                return null;
+    /**
+     * Запрашивает страницу асинхронно. Если она уже известна обходу, запрос
+     * условный: на неизменившуюся страницу сервер может ответить 304 без тела.
+     * Ответ, перенаправленный на другой хост, считается ошибкой: его
+     * содержимое не относится к сайту.
+     */
+    private CompletableFuture<PageTask> fetch(SiteCrawl crawl, searchengine.models.Site siteModel, URL url)
+        throws InterruptedException {
+        KnownPage previous = crawl == null ? null : crawl.getKnown().get(url.getPath());
+
+        return pageFetcher.fetch(url, previous).thenApply(response -> {
+            if (!url.getHost().equalsIgnoreCase(response.uri().getHost())) {
+                throw new CompletionException(new IOException(
+                    "Страница " + url + " перенаправлена за пределы сайта: " + response.uri()));
             }
 
-            return url;
-        }
+            PageTask task = new PageTask(crawl, siteModel, url);
+            task.setLocation(toURL(response.uri()));
+            task.setGeneration(crawl == null ? siteModel.getGeneration() : crawl.getGeneration());
+            task.setPrevious(previous);
+            task.setCode(response.code());
+            task.setEtag(response.etag());
+            task.setLastModified(response.lastModified());
+            task.setCharset(response.charset());
+            task.setBody(response.body());
+
+            return task;
+        });
     }
 
-    private String getFileExtension(String fileName) {
-        synchronized (lock) {
-            return Optional.ofNullable(fileName)
-                .filter(f -> f.contains("."))
-                .map(f -> f.substring(fileName.lastIndexOf(".") + 1).toLowerCase())
-                .orElse("");
-        }
+    /**
+     * Страница, которая по sitemap не менялась, проходит конвейер так же,
+     * как ответ 304: ссылки берутся из сохранённого HTML.
+     */
+    private PageTask notModified(SiteCrawl crawl, URL url) {
+        KnownPage previous = crawl.getKnown().get(url.getPath());
+        PageTask task = new PageTask(crawl, crawl.getSite(), url);
+        task.setLocation(url);
+        task.setGeneration(crawl.getGeneration());
+        task.setPrevious(previous);
+        task.setCode(HttpURLConnection.HTTP_NOT_MODIFIED);
+        task.setEtag(previous.etag());
+        task.setLastModified(previous.lastModified());
+
+        return task;
+    }
+
+    private void deleteGeneration(long siteId, int generation) {
+        indexRepository.deleteBySiteIdAndGeneration(siteId, generation);
+        pageContentRepository.deleteBySiteIdAndGeneration(siteId, generation);
+        pageRepository.deleteBySiteIdAndGeneration(siteId, generation);
+        lemmaRepository.deleteBySiteIdAndGeneration(siteId, generation);
     }
 
     private searchengine.models.Site saveSite(Site site, String host) {
@@ -292,6 +516,14 @@ public class IndexationService {
         return siteModel;
     }
 
+    private URL toURL(URI uri) {
+        try {
+            return uri.toURL();
+        } catch (MalformedURLException e) {
+            throw new CompletionException(e);
+        }
+    }
+
     private String normalizeHost(String host) {
         return host.endsWith("/") ? host.substring(0, host.length() - 1) : host;
     }
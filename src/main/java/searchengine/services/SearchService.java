@@ -0,0 +1,489 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.Jsoup;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import searchengine.LemmaFinder;
+import searchengine.dto.api.Response;
+import searchengine.dto.api.ResponseSearchData;
+import searchengine.indexing.Compressor;
+import searchengine.indexing.Positions;
+import searchengine.indexing.Sentences;
+import searchengine.models.Page;
+import searchengine.models.Site;
+import searchengine.repositories.IndexRepository;
+import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.PageContentRepository;
+import searchengine.repositories.PageRepository;
+import searchengine.repositories.SiteRepository;
+import searchengine.search.Bm25;
+import searchengine.search.InvertedIndex;
+import searchengine.search.PostingList;
+import searchengine.search.PostingListBuilder;
+import searchengine.search.QueryEvaluator;
+import searchengine.search.SearchCache;
+import searchengine.search.SiteIndex;
+import searchengine.search.TopPages;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Service
+@RequiredArgsConstructor
+public class SearchService {
+    private static final int SCORE_BATCH = 1000;
+    private static final int SNIPPET_WINDOW = 200;
+    private static final int SNIPPET_CONTEXT = 80;
+
+    @Autowired
+    private final SiteRepository siteRepository;
+
+    @Autowired
+    private final PageRepository pageRepository;
+
+    @Autowired
+    private final PageContentRepository pageContentRepository;
+
+    @Autowired
+    private final LemmaRepository lemmaRepository;
+
+    @Autowired
+    private final IndexRepository indexRepository;
+
+    @Autowired
+    private final LemmaFinder lemmaFinder;
+
+    @Autowired
+    private final InvertedIndex invertedIndex;
+
+    @Autowired
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private final SearchCache searchCache;
+
+    /**
+     * Наибольшее offset + limit: глубже результаты не отдаются, чтобы запрос
+     * не заставлял держать в памяти лишние страницы.
+     */
+    public static final int MAX_RESULTS = 1000;
+
+    private final QueryEvaluator queryEvaluator = new QueryEvaluator();
+
+    /**
+     * Находит страницы со всеми леммами запроса, оценивает их по BM25 и
+     * возвращает только окно offset..offset+limit вместе с общим числом
+     * найденных страниц. Заголовки и сниппеты строятся только для окна.
+     */
+    public Response search(String query, String site, int offset, int limit) {
+        if (!isValidWindow(offset, limit)) {
+            throw new IllegalArgumentException("offset + limit должно быть не больше " + MAX_RESULTS);
+        }
+
+        HashMap<String, Integer> lemmas = lemmaFinder.textToLemmas(query);
+        Site siteModel = site.isBlank() ? null : siteRepository.findByUrl(site);
+
+        SearchCache.Key key = new SearchCache.Key(
+            lemmas.keySet().stream().sorted().toList(),
+            Arrays.stream(query.trim().toLowerCase().split("\\s+")).distinct().sorted().toList(),
+            siteModel == null ? SearchCache.ALL_SITES : siteModel.getId(),
+            offset,
+            limit
+        );
+
+        return searchCache.get(key, () -> search(lemmas, query, siteModel, offset, limit));
+    }
+
+    public static boolean isValidWindow(int offset, int limit) {
+        return offset >= 0 && limit > 0 && (long) offset + limit <= MAX_RESULTS;
+    }
+
+    private Response search(HashMap<String, Integer> lemmas, String query, Site siteModel, int offset, int limit) {
+        TopPages top = new TopPages(offset + limit);
+        int count = invertedIndex.isLoaded() ?
+            findInIndex(lemmas.keySet(), siteModel, top) :
+            findInDatabase(lemmas, siteModel, top);
+
+        top.sort();
+
+        return Response.builder()
+            .result(true)
+            .count(count)
+            .data(getSearchData(top, offset, lemmas.keySet(), query))
+            .build();
+    }
+
+    private List<ResponseSearchData> getSearchData(TopPages top, int offset, Set<String> lemmas, String query) {
+        List<ResponseSearchData> data = new ArrayList<>();
+
+        if (top.size() <= offset) {
+            return data;
+        }
+
+        float rMax = top.score(0);
+        List<Long> pageIds = new ArrayList<>();
+
+        for (int i = offset; i < top.size(); i++) {
+            pageIds.add(top.pageId(i));
+        }
+
+        Map<Long, Page> pages = pageRepository.findByIdIn(pageIds).stream()
+            .collect(Collectors.toMap(Page::getId, p -> p));
+        Map<Long, List<int[]>> positions = new HashMap<>();
+
+        for (IndexRepository.LemmaPositions p : indexRepository.findPositions(pageIds, lemmas)) {
+            positions.computeIfAbsent(p.getPageId(), id -> new ArrayList<>()).add(Positions.decode(p.getPositions()));
+        }
+
+        for (int i = offset; i < top.size(); i++) {
+            Page foundedPage = pages.get(top.pageId(i));
+
+            if (foundedPage == null) {
+                continue;
+            }
+
+            ResponseSearchData searchData = new ResponseSearchData();
+            searchData.setSite(foundedPage.getSite().getUrl());
+            searchData.setUri(foundedPage.getPath());
+            searchData.setTitle(getPageTitle(foundedPage));
+            searchData.setSiteName(foundedPage.getSite().getName());
+            searchData.setSnippet(getSnippet(query, foundedPage, positions.getOrDefault(foundedPage.getId(), List.of())));
+            searchData.setRelevance(rMax > 0 ? top.score(i) / rMax : 0f);
+
+            data.add(searchData);
+        }
+
+        return data;
+    }
+
+    /**
+     * Ищет страницы, содержащие все леммы запроса, по инвертированному индексу.
+     * Леммы, которых нет ни на одном из сайтов, как и раньше, не учитываются.
+     * Возвращает число найденных страниц.
+     */
+    private int findInIndex(Set<String> lemmas, Site siteModel, TopPages top) {
+        Collection<SiteIndex> indexes = siteModel == null ?
+            invertedIndex.getSites() :
+            List.of(invertedIndex.get(siteModel.getId()));
+
+        Map<SiteIndex, Map<String, PostingList>> lists = new HashMap<>();
+        Set<String> queryLemmas = new HashSet<>();
+
+        for (SiteIndex index : indexes) {
+            Map<String, PostingList> indexLists = new HashMap<>();
+
+            for (String lemma : lemmas) {
+                PostingList list = index.get(lemma);
+
+                if (list != null) {
+                    indexLists.put(lemma, list);
+                    queryLemmas.add(lemma);
+                }
+            }
+
+            lists.put(index, indexLists);
+        }
+
+        if (queryLemmas.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+
+        for (SiteIndex index : indexes) {
+            List<PostingList> postings = new ArrayList<>();
+
+            for (String lemma : queryLemmas) {
+                PostingList list = lists.get(index).get(lemma);
+
+                if (list == null) {
+                    postings = null;
+                    break;
+                }
+
+                postings.add(list);
+            }
+
+            if (postings == null) {
+                continue;
+            }
+
+            int pageCount = index.getPageCount();
+            double averageLength = pageCount > 0 ? index.getTotalNorm() / pageCount : 0;
+            double[] idf = new double[postings.size()];
+
+            for (int j = 0; j < postings.size(); j++) {
+                idf[j] = Bm25.idf(pageCount, postings.get(j).size());
+            }
+
+            QueryEvaluator.Matches matches = queryEvaluator.evaluate(postings);
+
+            for (int i = 0; i < matches.size(); i++) {
+                long pageId = matches.pageId(i);
+                float length = index.norm(pageId);
+                double score = 0;
+
+                for (int j = 0; j < postings.size(); j++) {
+                    score += Bm25.score(idf[j], matches.rank(i, j), length, averageLength);
+                }
+
+                top.offer(pageId, (float) score);
+            }
+
+            count += matches.size();
+        }
+
+        return count;
+    }
+
+    private int findInDatabase(HashMap<String, Integer> lemmas, Site siteModel, TopPages top) {
+        List<PostingList> postings = new ArrayList<>();
+
+        for (String lemma : lemmas.keySet()) {
+            if (!lemmaRepository.findByLemma(lemma).isEmpty()) {
+                postings.add(getPageIds(lemma, siteModel));
+            }
+        }
+
+        if (postings.isEmpty()) {
+            return 0;
+        }
+
+        QueryEvaluator.Matches matches = queryEvaluator.evaluate(postings);
+        List<Long> pageIds = new ArrayList<>(matches.size());
+
+        for (int i = 0; i < matches.size(); i++) {
+            pageIds.add(matches.pageId(i));
+        }
+
+        Map<Long, Float> relevance = getRelevance(lemmas.keySet(), pageIds);
+        relevance.forEach(top::offer);
+
+        return matches.size();
+    }
+
+    /**
+     * Все страницы с леммой, упорядоченные по id, без рангов.
+     */
+    private PostingList getPageIds(String lemma, Site siteModel) {
+        PostingListBuilder builder = new PostingListBuilder();
+        String sql =
+            "select i.page_id " +
+            "  from `index` i " +
+            "  join lemma l " +
+            "    on l.id = i.lemma_id " +
+            "  join site s " +
+            "    on s.id = l.site_id " +
+            "   and s.generation = l.generation " +
+            " where l.lemma = ?";
+
+        if (siteModel == null) {
+            jdbcTemplate.query(sql + " order by i.page_id",
+                rs -> { builder.add(rs.getLong(1), 0f); }, lemma);
+        } else {
+            jdbcTemplate.query(sql + " and l.site_id = ? order by i.page_id",
+                rs -> { builder.add(rs.getLong(1), 0f); }, lemma, siteModel.getId());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * HTML страницы нужен только страницам, проиндексированным до появления
+     * столбцов title и text, поэтому читается отдельно и лишь по требованию.
+     */
+    private String getContent(Page page) {
+        return pageContentRepository.findById(page.getId())
+            .map(c -> Compressor.decompress(c.getContent()))
+            .orElse("");
+    }
+
+    private String getPageTitle(Page page) {
+        if (page.getTitle() == null) {
+            return Jsoup.parse(getContent(page)).title();
+        }
+
+        return page.getTitle();
+    }
+
+    /**
+     * Сниппет - самое плотное окно вхождений лемм запроса в видимый текст
+     * страницы: больше всего разных лемм, при равенстве - больше вхождений.
+     * Окно расширяется до границ предложений, но не больше чем на
+     * SNIPPET_CONTEXT символов с каждой стороны. Подсвечиваются все формы
+     * слов, так как смещения лемм сохраняются при индексации.
+     */
+    private String getSnippet(String query, Page page, List<int[]> lemmaPositions) {
+        int size = 0;
+
+        for (int[] starts : lemmaPositions) {
+            size += starts.length;
+        }
+
+        if (size == 0 || page.getText() == null) {
+            return getWordSnippet(query, page);
+        }
+
+        // смещение в старших битах, номер леммы в младших
+        long[] hits = new long[size];
+        size = 0;
+
+        for (int lemma = 0; lemma < lemmaPositions.size(); lemma++) {
+            for (int start : lemmaPositions.get(lemma)) {
+                hits[size++] = ((long) start << 16) | lemma;
+            }
+        }
+
+        Arrays.sort(hits);
+
+        int[] inWindow = new int[lemmaPositions.size()];
+        int distinct = 0;
+        int bestFrom = 0;
+        int bestTo = 0;
+        int bestDistinct = 0;
+
+        for (int from = 0, to = 0; to < hits.length; to++) {
+            if (inWindow[(int) (hits[to] & 0xFFFF)]++ == 0) {
+                distinct++;
+            }
+
+            while ((hits[to] >> 16) - (hits[from] >> 16) > SNIPPET_WINDOW) {
+                if (--inWindow[(int) (hits[from] & 0xFFFF)] == 0) {
+                    distinct--;
+                }
+
+                from++;
+            }
+
+            if (distinct > bestDistinct || (distinct == bestDistinct && to - from > bestTo - bestFrom)) {
+                bestDistinct = distinct;
+                bestFrom = from;
+                bestTo = to;
+            }
+        }
+
+        String text = page.getText();
+        int first = (int) (hits[bestFrom] >> 16);
+        int last = LemmaFinder.wordEnd(text, (int) (hits[bestTo] >> 16));
+        int[] ends = page.getSentences() == null ? new int[0] : Sentences.decode(page.getSentences());
+        int sentence = Arrays.binarySearch(ends, first);
+        int begin = sentence >= 0 ? ends[sentence] : (-sentence - 1 == 0 ? 0 : ends[-sentence - 2]);
+        sentence = Arrays.binarySearch(ends, last);
+        int end = sentence >= 0 ? ends[sentence] : (-sentence - 1 < ends.length ? ends[-sentence - 1] : text.length());
+        String prefix = "";
+        String suffix = "";
+
+        if (first - begin > SNIPPET_CONTEXT) {
+            begin = Math.min(first, text.indexOf(' ', first - SNIPPET_CONTEXT) + 1);
+            prefix = "...";
+        }
+
+        if (end - last > SNIPPET_CONTEXT) {
+            end = Math.max(last, text.lastIndexOf(' ', last + SNIPPET_CONTEXT));
+            suffix = "...";
+        }
+
+        StringBuilder snippet = new StringBuilder(prefix);
+        int copied = begin;
+
+        for (long hit : hits) {
+            int start = (int) (hit >> 16);
+
+            if (start < copied || start >= end) {
+                continue;
+            }
+
+            int wordEnd = LemmaFinder.wordEnd(text, start);
+            snippet.append(text, copied, start).append("<b>").append(text, start, wordEnd).append("</b>");
+            copied = wordEnd;
+        }
+
+        return snippet.append(text, copied, end).append(suffix).toString().trim();
+    }
+
+    /**
+     * Сниппет по вхождениям самих слов запроса - для страниц,
+     * проиндексированных до появления смещений лемм.
+     */
+    private String getWordSnippet(String query, Page page) {
+        String text = page.getText();
+        int[] ends;
+
+        if (text == null) {
+            try {
+                text = Jsoup.parse(getContent(page)).body().text();
+            } catch (Exception ignored) {
+                return "";
+            }
+
+            ends = Sentences.split(text);
+        } else {
+            ends = Sentences.decode(page.getSentences());
+        }
+
+        if (ends.length == 0) {
+            return "";
+        }
+
+        String lowerText = text.toLowerCase();
+        String[] words = Arrays.stream(query.trim().toLowerCase().split("\\s+")).distinct().toArray(String[]::new);
+        int[] counts = new int[ends.length];
+        int best = -1;
+
+        for (String word : words) {
+            int last = -1;
+
+            for (int i = lowerText.indexOf(word); i >= 0; i = lowerText.indexOf(word, i + 1)) {
+                int sentence = Arrays.binarySearch(ends, i);
+                sentence = sentence < 0 ? -sentence - 1 : sentence + 1;
+
+                if (sentence != last && sentence < ends.length) {
+                    last = sentence;
+                    counts[sentence]++;
+
+                    if (best < 0 || counts[sentence] > counts[best] ||
+                        (counts[sentence] == counts[best] && sentence < best)) {
+                        best = sentence;
+                    }
+                }
+            }
+        }
+
+        if (best < 0) {
+            return "";
+        }
+
+        String sentence = text.substring(best == 0 ? 0 : ends[best - 1], ends[best]);
+
+        for (String word : words) {
+            sentence = StringUtils.replaceIgnoreCase(sentence, word, "<b>" + word + "</b>");
+        }
+
+        return sentence;
+    }
+
+    /**
+     * BM25 по данным из базы. Ранги всех лемм запроса на найденных страницах
+     * загружаются одним запросом на каждые SCORE_BATCH страниц. Длины страниц
+     * в базе не хранятся, поэтому все страницы считаются средней длины.
+     */
+    private Map<Long, Float> getRelevance(Set<String> lemmas, List<Long> pageIds) {
+        Map<Long, Float> relevance = new HashMap<>();
+        Map<Long, Integer> pageCounts = new HashMap<>();
+
+        for (int from = 0; from < pageIds.size(); from += SCORE_BATCH) {
+            List<Long> batch = pageIds.subList(from, Math.min(pageIds.size(), from + SCORE_BATCH));
+
+            for (IndexRepository.LemmaRank r : indexRepository.findRanks(batch, lemmas)) {
+                int pageCount = pageCounts.computeIfAbsent(r.getSiteId(), pageRepository::countLiveBySiteId);
+                double score = Bm25.score(Bm25.idf(pageCount, r.getFrequency()), r.getRank(), 1, 1);
+                relevance.merge(r.getPageId(), (float) score, Float::sum);
+            }
+        }
+
+        return relevance;
+    }
+}
@@ -9,9 +9,12 @@ import searchengine.dto.statistics.DetailedStatisticsItem;
 import searchengine.dto.statistics.StatisticsData;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.dto.statistics.TotalStatistics;
+import searchengine.indexing.IndexingPipeline;
 import searchengine.repositories.LemmaRepository;
 import searchengine.repositories.PageRepository;
 import searchengine.repositories.SiteRepository;
+import searchengine.search.InvertedIndex;
+import searchengine.search.SearchCache;
 
 import java.util.*;
 
@@ -25,6 +28,15 @@ public class StatisticsServiceImpl implements StatisticsService {
     @Autowired
     private final IndexationService indexationService;
 
+    @Autowired
+    private final IndexingPipeline indexingPipeline;
+
+    @Autowired
+    private final SearchCache searchCache;
+
+    @Autowired
+    private final InvertedIndex invertedIndex;
+
     @Autowired
     private final PageRepository pageRepository;
 
@@ -51,8 +63,8 @@ public class StatisticsServiceImpl implements StatisticsService {
             long statusTime = 0;
 
             if (siteModel != null) {
-                pages = pageRepository.countBySiteId(siteModel.getId());
-                lemmas = lemmaRepository.countBySiteId(siteModel.getId());
+                pages = pageRepository.countBySiteIdAndGeneration(siteModel.getId(), siteModel.getGeneration());
+                lemmas = lemmaRepository.countBySiteIdAndGeneration(siteModel.getId(), siteModel.getGeneration());
                 status = siteModel.getStatus().name();
                 statusTime = siteModel.getStatusTime().getTime();
             }
@@ -76,6 +88,9 @@ public class StatisticsServiceImpl implements StatisticsService {
         StatisticsData data = new StatisticsData();
         data.setTotal(total);
         data.setDetailed(detailed);
+        data.setPipeline(indexingPipeline.getStatistics());
+        data.setSearchCache(searchCache.getStatistics());
+        data.setSearchIndex(invertedIndex.isLoaded() ? "LOADED" : invertedIndex.isFailed() ? "FAILED" : "LOADING");
         response.setStatistics(data);
         response.setResult(true);
 